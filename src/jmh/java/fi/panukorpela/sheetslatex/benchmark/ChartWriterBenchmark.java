@@ -0,0 +1,115 @@
+package fi.panukorpela.sheetslatex.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fi.panukorpela.sheetslatex.service.BuildManifest;
+import fi.panukorpela.sheetslatex.service.PgfPlotsChartWriterService;
+import fi.panukorpela.sheetslatex.service.SheetTable;
+import fi.panukorpela.sheetslatex.service.SheetValues;
+import fi.panukorpela.sheetslatex.service.pgfconverters.BarChartParams;
+import fi.panukorpela.sheetslatex.service.pgfconverters.MulticolourBarChartWriter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * The chart writers and the sheet row conversion on tables of different sizes. Charts are
+ * written to a temporary directory; the build manifest is disabled so every call writes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChartWriterBenchmark {
+    private static final String TAB = "Data";
+
+    @Param({"10", "1000", "100000"})
+    int rows;
+
+    private Path outputDir;
+    private List<List<Object>> values;
+    private String range;
+    private SheetTable table;
+    private SheetTable colouredTable;
+    private PgfPlotsChartWriterService chartWriterService;
+    private BarChartParams barChartParams;
+    private BarChartParams colouredChartParams;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        outputDir = Files.createTempDirectory("chart-benchmark");
+        values = SyntheticData.chartValues(rows);
+        range = "A2:B" + (rows + 1);
+        table = SheetValues.toSheetTable(values, TAB, range, true);
+        // The coloured chart reads the label from column 0 and the count from column 1
+        colouredTable = table.swapColumns(0, 1);
+
+        InMemorySheetDataSource dataSource = new InMemorySheetDataSource();
+        dataSource.put(SheetValues.tableCheckRange(TAB, range), values);
+        BuildManifest manifest = new BuildManifest(outputDir.resolve("manifest.properties").toString(), false);
+        chartWriterService = new PgfPlotsChartWriterService(dataSource, manifest, new SimpleMeterRegistry());
+        barChartParams = BarChartParams.builder()
+                .tab(TAB)
+                .range(range)
+                .outputFile(outputDir.resolve("bar.tex").toString())
+                .build();
+        colouredChartParams = BarChartParams.builder()
+                .tab(TAB)
+                .range(range)
+                .outputFile(outputDir.resolve("coloured.tex").toString())
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (var files = Files.list(outputDir)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(outputDir);
+    }
+
+    @Benchmark
+    public List<String[]> tableConversion() {
+        return SheetValues.toTable(values, TAB, range, true);
+    }
+
+    @Benchmark
+    public SheetTable sheetTableConversion() {
+        return SheetValues.toSheetTable(values, TAB, range, true);
+    }
+
+    @Benchmark
+    public void writeBarChart() {
+        chartWriterService.writeBarChart(table, barChartParams);
+    }
+
+    @Benchmark
+    public void writeBarChartFromSheets() {
+        chartWriterService.writeBarChartFromSheets(barChartParams);
+    }
+
+    @Benchmark
+    public void writeMulticolourBarChart() {
+        MulticolourBarChartWriter.writeMulticolorBarChartFromSheets(colouredTable, colouredChartParams);
+    }
+}
@@ -0,0 +1,60 @@
+package fi.panukorpela.sheetslatex.benchmark;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fi.panukorpela.sheetslatex.service.SheetBatch;
+import fi.panukorpela.sheetslatex.service.SheetDataSource;
+import fi.panukorpela.sheetslatex.service.SheetValues;
+
+/**
+ * Serves fixed values from memory, keyed by the exact range string that is read.
+ */
+class InMemorySheetDataSource implements SheetDataSource {
+    private final Map<String, List<List<Object>>> values = new HashMap<>();
+
+    void put(String range, List<List<Object>> rangeValues) {
+        values.put(range, rangeValues);
+    }
+
+    private List<List<Object>> get(String range) {
+        return values.getOrDefault(range, Collections.emptyList());
+    }
+
+    @Override
+    public Map<String, String> readLatexVariables() {
+        return SheetValues.toLatexVariables(get(LATEX_VARIABLES_RANGE));
+    }
+
+    @Override
+    public List<String[]> getTableFromSheet(String tabName, String rangeString, boolean errorForDataAfterRange) {
+        return SheetValues.toTable(get(SheetValues.tableCheckRange(tabName, rangeString)),
+                tabName, rangeString, errorForDataAfterRange);
+    }
+
+    @Override
+    public List<Object> readRange(String range) {
+        List<List<Object>> rows = get(range);
+        return rows.isEmpty() ? Collections.emptyList() : rows.get(0);
+    }
+
+    @Override
+    public SheetBatch batchGet(Collection<String> ranges) {
+        SheetBatch batch = new SheetBatch();
+        for (String range : ranges) {
+            batch.put(range, get(range));
+        }
+        return batch;
+    }
+
+    /**
+     * All spreadsheets share the same values.
+     */
+    @Override
+    public SheetBatch batchGet(String spreadsheetId, Collection<String> ranges) {
+        return batchGet(ranges);
+    }
+}
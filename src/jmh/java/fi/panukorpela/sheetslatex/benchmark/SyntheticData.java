@@ -0,0 +1,53 @@
+package fi.panukorpela.sheetslatex.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Deterministic synthetic sheet values and templates for the benchmarks.
+ */
+final class SyntheticData {
+    private SyntheticData() {}
+
+    /**
+     * Rows of (count, label) like a chart range, counts with a decimal comma as the sheet formats them.
+     */
+    static List<List<Object>> chartValues(int rows) {
+        Random random = new Random(rows);
+        List<List<Object>> values = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            String count = (random.nextInt(1000)) + "," + random.nextInt(100);
+            values.add(List.of(count, "Category_" + i + " with a longer label"));
+        }
+        return values;
+    }
+
+    static Map<String, String> variables(int count) {
+        Map<String, String> variables = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            variables.put("var_" + i, Integer.toString(i * 7));
+        }
+        return variables;
+    }
+
+    /**
+     * A LaTeX-like template of about the given size with a placeholder every ~200 chars,
+     * cycling through {@code variableCount} names.
+     */
+    static String template(int sizeBytes, int variableCount) {
+        String paragraph = "Lorem ipsum dolor sit amet, \\emph{consectetur} adipiscing elit, sed do eiusmod "
+                + "tempor incididunt ut labore et dolore magna aliqua~\\cite{ref}. Value: ";
+        StringBuilder template = new StringBuilder(sizeBytes + 256);
+        template.append("\\documentclass{article}\n\\begin{document}\n");
+        int i = 0;
+        while (template.length() < sizeBytes) {
+            template.append(paragraph).append("\\VAR{var_").append(i % variableCount).append("}.\n");
+            i++;
+        }
+        template.append("\\end{document}\n");
+        return template.toString();
+    }
+}
@@ -0,0 +1,69 @@
+package fi.panukorpela.sheetslatex.benchmark;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fi.panukorpela.sheetslatex.service.template.CompiledTemplate;
+import fi.panukorpela.sheetslatex.service.template.TemplateRenderResult;
+import fi.panukorpela.sheetslatex.service.template.TemplateScanner;
+
+/**
+ * Variable substitution as done by LatexVariableReplacerService: streaming, compiling and
+ * rendering a compiled template.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TemplateRenderBenchmark {
+    @Param({"65536", "2097152"})
+    int templateBytes;
+
+    private String template;
+    private Map<String, String> variables;
+    private CompiledTemplate compiled;
+
+    @Setup
+    public void setup() throws IOException {
+        template = SyntheticData.template(templateBytes, 500);
+        variables = SyntheticData.variables(500);
+        compiled = CompiledTemplate.compile(new StringReader(template));
+    }
+
+    @Benchmark
+    public TemplateRenderResult streamingRender() throws IOException {
+        return TemplateScanner.render(new StringReader(template), Writer.nullWriter(), variables);
+    }
+
+    @Benchmark
+    public CompiledTemplate compile() throws IOException {
+        return CompiledTemplate.compile(new StringReader(template));
+    }
+
+    @Benchmark
+    public TemplateRenderResult compiledRender() throws IOException {
+        return compiled.render(variables, Writer.nullWriter());
+    }
+
+    @Benchmark
+    public byte[] compiledRenderToBytes() {
+        return compiled.renderToBytes(variables);
+    }
+}
@@ -0,0 +1,51 @@
+package fi.panukorpela.sheetslatex.service.pgfconverters;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fi.panukorpela.sheetslatex.service.PgfPlotsChartWriterService;
+
+/**
+ * The three axis label line breaking variants. In this package to reach the package-private
+ * ones of MulticolourBarChartWriter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LabelLineBreakBenchmark {
+    @Param({"completion: certain amount of activities",
+            "a_rather_long_label_without_any_spaces_at_all_to_break_on",
+            "Short"})
+    String label;
+
+    @Param({"15"})
+    int maxLineLength;
+
+    @Benchmark
+    public String pgfPlotsChartWriter() {
+        return PgfPlotsChartWriterService.latexAxisLabelLineBreak(label, maxLineLength);
+    }
+
+    @Benchmark
+    public String multicolourWordBreak() {
+        return MulticolourBarChartWriter.latexAxisLabelLineBreak(label, maxLineLength);
+    }
+
+    @Benchmark
+    public String multicolourExactBreak() {
+        return MulticolourBarChartWriter.latexAxisLabelLineBreakExact(label, maxLineLength);
+    }
+}
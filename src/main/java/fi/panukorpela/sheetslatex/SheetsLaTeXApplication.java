@@ -7,6 +7,19 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 public class SheetsLaTeXApplication {
 
     public static void main(String[] args) {
-        SpringApplication.run(SheetsLaTeXApplication.class, args);
+        SpringApplication.run(SheetsLaTeXApplication.class, expandSwitches(args));
+    }
+
+    /**
+     * Turns the --offline switch into --sheets.offline=true.
+     */
+    static String[] expandSwitches(String[] args) {
+        String[] expanded = args.clone();
+        for (int i = 0; i < expanded.length; i++) {
+            if (expanded[i].equals("--offline")) {
+                expanded[i] = "--sheets.offline=true";
+            }
+        }
+        return expanded;
     }
 }
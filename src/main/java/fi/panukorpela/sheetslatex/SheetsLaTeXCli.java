@@ -0,0 +1,28 @@
+package fi.panukorpela.sheetslatex;
+
+import java.util.Map;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
+
+import fi.panukorpela.sheetslatex.service.CliBuildRunner;
+
+/**
+ * One-shot build from the command line, e.g. from cron: renders the variables and the charts
+ * of cli.charts-file, or every document of batch.projects-file, compiles them and exits with
+ * the status of {@link CliBuildRunner}. No web server is started, and beans are created only
+ * when the build needs them.
+ * <p>
+ * Takes the same properties and switches as {@link SheetsLaTeXApplication}. Built with the
+ * {@code cli} Maven profile, the jar starts here, is AOT-processed and comes with a CDS archive.
+ */
+public class SheetsLaTeXCli {
+
+    public static void main(String[] args) {
+        SpringApplication application = new SpringApplication(SheetsLaTeXApplication.class);
+        application.setWebApplicationType(WebApplicationType.NONE);
+        application.setLazyInitialization(true);
+        application.setDefaultProperties(Map.of("cli.enabled", "true"));
+        System.exit(SpringApplication.exit(application.run(SheetsLaTeXApplication.expandSwitches(args))));
+    }
+}
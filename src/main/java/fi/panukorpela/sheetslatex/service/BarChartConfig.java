@@ -1,5 +1,8 @@
 package fi.panukorpela.sheetslatex.service;
 
+import fi.panukorpela.sheetslatex.service.pgfconverters.BarChartParams;
+import fi.panukorpela.sheetslatex.service.pgfconverters.Downsampling;
+
 //This class maps to a single chart entry in your YAML
 public class BarChartConfig {
  private String methodName = "writeBarChartFromSheets";
@@ -14,6 +17,12 @@ public class BarChartConfig {
  private boolean reverseOrder;
  private int xLabelMaxLineLength;
  private double xLimits;
+ // none, sum, mean, max or lttb; applies when the range has more than maxPoints rows
+ private String downsample;
+ private int maxPoints;
+ // Write the data to a .dat file next to the chart and read it with \addplot table (bar
+ // charts only, the bars of a multicolour chart are separate plots with inline coordinates)
+ private boolean externalData;
 
  public String getMethodName() {
      return methodName;
@@ -113,6 +122,49 @@ public class BarChartConfig {
      this.xLimits = xLimits;
  }
 
+ public String getDownsample() {
+     return downsample;
+ }
+
+ public void setDownsample(String downsample) {
+     this.downsample = downsample;
+ }
+
+ public int getMaxPoints() {
+     return maxPoints;
+ }
+
+ public void setMaxPoints(int maxPoints) {
+     this.maxPoints = maxPoints;
+ }
+
+ public boolean isExternalData() {
+     return externalData;
+ }
+
+ public void setExternalData(boolean externalData) {
+     this.externalData = externalData;
+ }
+
+ public BarChartParams toBarChartParams() {
+     BarChartParams.Builder builder = BarChartParams.builder()
+             .tab(tab)
+             .range(range)
+             .errorForDataAfterRange(errorForDataAfterRange)
+             .swapColumns(swapColumns)
+             .labelRotation(labelRotation)
+             .reverseOrder(reverseOrder)
+             .xLabelMaxLineLength(xLabelMaxLineLength)
+             .xLimits(xLimits)
+             .downsampling(Downsampling.parse(downsample))
+             .maxPoints(maxPoints)
+             .externalData(externalData);
+     if (outputFile != null) builder.outputFile(outputFile);
+     if (xLabel != null) builder.xLabel(xLabel);
+     if (yLabel != null) builder.yLabel(yLabel);
+     return builder.build();
+ }
+
  @Override
  public String toString() {
      return "BarChartConfig{" +
@@ -128,6 +180,9 @@ public class BarChartConfig {
             ", reverseOrder=" + reverseOrder +
             ", xLabelMaxLineLength=" + xLabelMaxLineLength +
             ", xLimits=" + xLimits +
+            ", downsample='" + downsample + '\'' +
+            ", maxPoints=" + maxPoints +
+            ", externalData=" + externalData +
             '}';
  }
 }
@@ -0,0 +1,51 @@
+package fi.panukorpela.sheetslatex.service;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.Constructor;
+
+//This class holds the documents of a batch run
+public class BatchConfiguration {
+ private List<ProjectConfig> projects;
+
+ // Reads a YAML file with a top-level 'projects' list
+ public static BatchConfiguration load(Path yamlFile) throws IOException {
+     Yaml yaml = new Yaml(new Constructor(BatchConfiguration.class, new LoaderOptions()));
+     try (Reader reader = Files.newBufferedReader(yamlFile, StandardCharsets.UTF_8)) {
+         BatchConfiguration configuration = yaml.load(reader);
+         if (configuration == null || configuration.getProjects() == null) {
+             throw new IllegalArgumentException("No 'projects' found in " + yamlFile);
+         }
+         for (ProjectConfig project : configuration.getProjects()) {
+             if (project.getSpreadsheetId() == null || project.getLatexTemplateFilename() == null
+                     || project.getLatexOutputFilename() == null) {
+                 throw new IllegalArgumentException("Project " + project + " in " + yamlFile
+                         + " needs spreadsheetId, latexTemplateFilename and latexOutputFilename");
+             }
+         }
+         return configuration;
+     }
+ }
+
+ public List<ProjectConfig> getProjects() {
+     return projects;
+ }
+
+ public void setProjects(List<ProjectConfig> projects) {
+     this.projects = projects;
+ }
+
+ @Override
+ public String toString() {
+     return "BatchConfiguration{" +
+            "projects=" + projects +
+            '}';
+ }
+}
@@ -0,0 +1,223 @@
+package fi.panukorpela.sheetslatex.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Remembers a hash of the inputs each output file was last built from, so that outputs whose
+ * inputs have not changed are neither rewritten nor recompiled. Stored as a properties file
+ * of absolute output path -> input hash.
+ */
+@Component
+public class BuildManifest {
+    private Logger log = LoggerFactory.getLogger(BuildManifest.class);
+    private final Path manifestFile;
+    private final boolean enabled;
+    private Properties hashes;
+
+    public BuildManifest(@Value("${build.manifest.file:.sheetslatex-build.properties}") String manifestFile,
+            @Value("${build.incremental:true}") boolean enabled) {
+        this.manifestFile = Paths.get(manifestFile);
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return true if the output exists and was last built from inputs with the given hash
+     */
+    public synchronized boolean isUpToDate(String outputFile, String inputHash) {
+        return isUpToDate(List.of(outputFile), inputHash);
+    }
+
+    /**
+     * @return true if all the outputs of one build step exist and were last built from inputs with
+     *         the given hash
+     */
+    public synchronized boolean isUpToDate(List<String> outputFiles, String inputHash) {
+        if (!enabled) {
+            return false;
+        }
+        for (String outputFile : outputFiles) {
+            if (!Files.exists(Paths.get(outputFile)) || !inputHash.equals(load().getProperty(key(outputFile)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records that the output was successfully built from inputs with the given hash.
+     */
+    public synchronized void record(String outputFile, String inputHash) {
+        record(List.of(outputFile), inputHash);
+    }
+
+    /**
+     * Records that all the outputs of one build step were built from inputs with the given hash,
+     * saving the manifest once.
+     */
+    public synchronized void record(List<String> outputFiles, String inputHash) {
+        if (!enabled) {
+            return;
+        }
+        for (String outputFile : outputFiles) {
+            load().setProperty(key(outputFile), inputHash);
+        }
+        save();
+    }
+
+    /**
+     * Forgets how the output was built, so that it is rebuilt next time, also by a new process.
+     */
+    public synchronized void forget(String outputFile) {
+        if (!enabled) {
+            return;
+        }
+        if (load().remove(key(outputFile)) != null) {
+            save();
+        }
+    }
+
+    private void save() {
+        try {
+            Path parent = manifestFile.toAbsolutePath().getParent();
+            Path tempFile = Files.createTempFile(parent, manifestFile.getFileName().toString(), ".tmp");
+            try (OutputStream out = Files.newOutputStream(tempFile)) {
+                hashes.store(out, "Input hashes of built outputs");
+            }
+            Files.move(tempFile, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Could not save build manifest '{}'", manifestFile, e);
+        }
+    }
+
+    private Properties load() {
+        if (hashes == null) {
+            hashes = new Properties();
+            if (Files.exists(manifestFile)) {
+                try (InputStream in = Files.newInputStream(manifestFile)) {
+                    hashes.load(in);
+                } catch (IOException e) {
+                    log.warn("Could not read build manifest '{}', rebuilding everything", manifestFile, e);
+                }
+            }
+        }
+        return hashes;
+    }
+
+    private static String key(String outputFile) {
+        return Paths.get(outputFile).toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * Incremental SHA-256 over the inputs of one output.
+     */
+    public static class InputHash {
+        private final MessageDigest digest;
+
+        public InputHash() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        public InputHash add(String value) {
+            if (value == null) {
+                digest.update((byte) 0);
+            } else {
+                digest.update((byte) 1);
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                addLength(bytes.length);
+                digest.update(bytes);
+            }
+            return this;
+        }
+
+        public InputHash add(byte[] bytes) {
+            addLength(bytes.length);
+            digest.update(bytes);
+            return this;
+        }
+
+        /**
+         * Adds the contents of a file, read in chunks.
+         */
+        public InputHash add(Path file) throws IOException {
+            long size = Files.size(file);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                digest.update((byte) (size >>> shift));
+            }
+            try (InputStream in = Files.newInputStream(file)) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+            return this;
+        }
+
+        public InputHash add(List<String[]> table) {
+            addLength(table.size());
+            for (String[] row : table) {
+                addLength(row.length);
+                for (String cell : row) {
+                    add(cell);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Adds the cells of the table in view order, hashing the same as {@link #add(List)} of its rows.
+         */
+        public InputHash add(SheetTable table) {
+            addLength(table.rowCount());
+            for (int i = 0; i < table.rowCount(); i++) {
+                int length = Math.min(table.rowLength(i), table.columnCount());
+                addLength(length);
+                for (int j = 0; j < length; j++) {
+                    add(table.text(i, j));
+                }
+            }
+            return this;
+        }
+
+        public InputHash add(Map<String, String> map) {
+            Map<String, String> sorted = new TreeMap<>(map);
+            addLength(sorted.size());
+            sorted.forEach((key, value) -> add(key).add(value));
+            return this;
+        }
+
+        private void addLength(int length) {
+            digest.update((byte) (length >>> 24));
+            digest.update((byte) (length >>> 16));
+            digest.update((byte) (length >>> 8));
+            digest.update((byte) length);
+        }
+
+        public String toHex() {
+            return HexFormat.of().formatHex(digest.digest());
+        }
+    }
+}
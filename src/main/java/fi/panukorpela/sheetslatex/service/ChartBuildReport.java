@@ -0,0 +1,76 @@
+package fi.panukorpela.sheetslatex.service;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of a chart build: per-chart durations and failures, and the wall-clock time of the
+ * whole build compared to the sum of the chart times.
+ */
+public class ChartBuildReport {
+    private final List<ChartResult> results;
+    private final long fetchNanos;
+    private final long wallClockNanos;
+
+    public ChartBuildReport(List<ChartResult> results, long fetchNanos, long wallClockNanos) {
+        this.results = List.copyOf(results);
+        this.fetchNanos = fetchNanos;
+        this.wallClockNanos = wallClockNanos;
+    }
+
+    public List<ChartResult> getResults() { return results; }
+    public long getFetchNanos() { return fetchNanos; }
+    public long getWallClockNanos() { return wallClockNanos; }
+
+    public long getSummedChartNanos() {
+        return results.stream().mapToLong(ChartResult::getDurationNanos).sum();
+    }
+
+    public List<ChartResult> getFailures() {
+        return results.stream().filter(result -> !result.isSuccess()).toList();
+    }
+
+    public boolean isSuccess() {
+        return results.stream().allMatch(ChartResult::isSuccess);
+    }
+
+    public List<ChartResult> getWritten() {
+        return results.stream().filter(ChartResult::isWritten).toList();
+    }
+
+    /**
+     * @return the .tex files of the charts that were built, whether written now or unchanged
+     */
+    public List<String> getOutputFiles() {
+        return results.stream().filter(ChartResult::isSuccess).map(result -> result.getChart().getOutputFile()).toList();
+    }
+
+    @Override
+    public String toString() {
+        return results.size() + " charts (" + getWritten().size() + " written, " + getFailures().size() + " failed) in "
+                + TimeUnit.NANOSECONDS.toMillis(wallClockNanos) + " ms wall clock, "
+                + TimeUnit.NANOSECONDS.toMillis(fetchNanos) + " ms fetching, "
+                + TimeUnit.NANOSECONDS.toMillis(getSummedChartNanos()) + " ms summed chart time";
+    }
+
+    public static class ChartResult {
+        private final BarChartConfig chart;
+        private final long durationNanos;
+        private final boolean written;
+        private final Exception error;
+
+        public ChartResult(BarChartConfig chart, long durationNanos, boolean written, Exception error) {
+            this.chart = chart;
+            this.durationNanos = durationNanos;
+            this.written = written;
+            this.error = error;
+        }
+
+        public BarChartConfig getChart() { return chart; }
+        public long getDurationNanos() { return durationNanos; }
+        // False when the chart was up to date and left untouched
+        public boolean isWritten() { return written; }
+        public Exception getError() { return error; }
+        public boolean isSuccess() { return error == null; }
+    }
+}
@@ -0,0 +1,109 @@
+package fi.panukorpela.sheetslatex.service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Builds all the charts of a YAML chart configuration concurrently, one virtual thread per chart.
+ * The sheet ranges of all charts are fetched up front in one batch; a failing chart is reported
+ * in the {@link ChartBuildReport} without stopping the others.
+ */
+@Service
+public class ChartBuildRunner {
+    private Logger log = LoggerFactory.getLogger(ChartBuildRunner.class);
+    private final SheetDataSource sheetDataSource;
+    private final PgfPlotsChartWriterService chartWriterService;
+    private final int concurrency;
+
+    public ChartBuildRunner(SheetDataSource sheetDataSource, PgfPlotsChartWriterService chartWriterService,
+            @Value("${charts.concurrency:8}") int concurrency) {
+        this.sheetDataSource = sheetDataSource;
+        this.chartWriterService = chartWriterService;
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    public ChartBuildReport run(Path chartYamlFile) throws IOException {
+        return run(ChartConfiguration.load(chartYamlFile).getCharts());
+    }
+
+    public ChartBuildReport run(List<BarChartConfig> charts) throws IOException {
+        long start = System.nanoTime();
+        SheetBatch batch = sheetDataSource.fetchBuildRanges(charts);
+        long fetchNanos = System.nanoTime() - start;
+        return run(charts, batch, concurrency, start, fetchNanos);
+    }
+
+    /**
+     * Builds the charts from a batch fetched earlier, e.g. together with the LaTeX variables.
+     */
+    public ChartBuildReport run(List<BarChartConfig> charts, SheetBatch batch) {
+        return run(charts, batch, concurrency, System.nanoTime(), 0);
+    }
+
+    /**
+     * Same as {@link #run(List, SheetBatch)} with at most the given number of charts built at the same time.
+     */
+    public ChartBuildReport run(List<BarChartConfig> charts, SheetBatch batch, int concurrency) {
+        return run(charts, batch, Math.max(1, concurrency), System.nanoTime(), 0);
+    }
+
+    private ChartBuildReport run(List<BarChartConfig> charts, SheetBatch batch, int concurrency, long start,
+            long fetchNanos) {
+        Semaphore permits = new Semaphore(concurrency);
+        List<Future<ChartBuildReport.ChartResult>> futures = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (BarChartConfig chart : charts) {
+                futures.add(executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        return buildChart(chart, batch);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+        }
+        List<ChartBuildReport.ChartResult> results = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                results.add(new ChartBuildReport.ChartResult(charts.get(i), 0, false, e));
+            } catch (ExecutionException e) {
+                results.add(new ChartBuildReport.ChartResult(charts.get(i), 0, false, e));
+            }
+        }
+        ChartBuildReport report = new ChartBuildReport(results, fetchNanos, System.nanoTime() - start);
+        for (ChartBuildReport.ChartResult failure : report.getFailures()) {
+            log.error("Chart '{}' failed", failure.getChart().getOutputFile(), failure.getError());
+        }
+        log.info("Chart build: {}", report);
+        return report;
+    }
+
+    private ChartBuildReport.ChartResult buildChart(BarChartConfig chart, SheetBatch batch) {
+        long start = System.nanoTime();
+        try {
+            boolean written = chartWriterService.writeChartFromBatch(chart, batch);
+            log.debug("Chart '{}' built in {} ms", chart.getOutputFile(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return new ChartBuildReport.ChartResult(chart, System.nanoTime() - start, written, null);
+        } catch (Exception e) {
+            return new ChartBuildReport.ChartResult(chart, System.nanoTime() - start, false, e);
+        }
+    }
+}
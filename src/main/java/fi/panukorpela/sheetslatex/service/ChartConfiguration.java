@@ -1,11 +1,32 @@
 package fi.panukorpela.sheetslatex.service;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 
+import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.Constructor;
+
 //This class will hold all your chart configurations
 public class ChartConfiguration {
  private List<BarChartConfig> charts;
 
+ // Reads a YAML file with a top-level 'charts' list
+ public static ChartConfiguration load(Path yamlFile) throws IOException {
+     Yaml yaml = new Yaml(new Constructor(ChartConfiguration.class, new LoaderOptions()));
+     try (Reader reader = Files.newBufferedReader(yamlFile, StandardCharsets.UTF_8)) {
+         ChartConfiguration configuration = yaml.load(reader);
+         if (configuration == null || configuration.getCharts() == null) {
+             throw new IllegalArgumentException("No 'charts' found in " + yamlFile);
+         }
+         return configuration;
+     }
+ }
+
  public List<BarChartConfig> getCharts() {
      return charts;
  }
@@ -0,0 +1,24 @@
+package fi.panukorpela.sheetslatex.service;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Rendering one chart and writing its .tex file.
+ */
+@Name("fi.panukorpela.sheetslatex.ChartRender")
+@Label("Chart Render")
+@Category({ "Sheets-LaTeX", "Charts" })
+@StackTrace(false)
+class ChartRenderEvent extends jdk.jfr.Event {
+    @Label("Method")
+    String method;
+
+    @Label("Output File")
+    String outputFile;
+
+    @Label("Rows")
+    int rows;
+}
@@ -0,0 +1,138 @@
+package fi.panukorpela.sheetslatex.service;
+
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.ExitCodeGenerator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+/**
+ * The build of the command-line entry point: fetches the sheet once, writes the document and
+ * the charts, compiles them (skipping what is unchanged since it last compiled) and reports the
+ * outcome as the exit code:
+ * 0 success, 1 the build failed, 2 some charts failed, 3 pdflatex failed, 4 built, but from
+ * values in the snapshot store because fetching failed.
+ * <p>
+ * With batch.projects-file set, builds the documents of that file with {@link ProjectBatchRunner}
+ * instead, exiting 0 if all of them were built, 5 if some failed and 1 if the file can't be read.
+ */
+@Service
+@ConditionalOnProperty(name = "cli.enabled", havingValue = "true")
+public class CliBuildRunner implements CommandLineRunner, ExitCodeGenerator {
+    public static final int EXIT_BUILD_FAILED = 1;
+    public static final int EXIT_CHARTS_FAILED = 2;
+    public static final int EXIT_COMPILE_FAILED = 3;
+    public static final int EXIT_STORED_VALUES = 4;
+    public static final int EXIT_DOCUMENTS_FAILED = 5;
+    private Logger log = LoggerFactory.getLogger(CliBuildRunner.class);
+    private final SheetDataSource sheetDataSource;
+    private final LatexVariableReplacerService latexVariableReplacerService;
+    private final ChartBuildRunner chartBuildRunner;
+    private final LatexCompiler latexCompiler;
+    private final ProjectBatchRunner projectBatchRunner;
+    private final String chartsFile;
+    private final boolean compile;
+    private final String projectsFile;
+    private int exitCode;
+
+    public CliBuildRunner(SheetDataSource sheetDataSource, LatexVariableReplacerService latexVariableReplacerService,
+            ChartBuildRunner chartBuildRunner, LatexCompiler latexCompiler, ProjectBatchRunner projectBatchRunner,
+            @Value("${cli.charts-file:}") String chartsFile,
+            @Value("${cli.compile:true}") boolean compile,
+            @Value("${batch.projects-file:}") String projectsFile) {
+        this.sheetDataSource = sheetDataSource;
+        this.latexVariableReplacerService = latexVariableReplacerService;
+        this.chartBuildRunner = chartBuildRunner;
+        this.latexCompiler = latexCompiler;
+        this.projectBatchRunner = projectBatchRunner;
+        this.chartsFile = chartsFile;
+        this.compile = compile;
+        this.projectsFile = projectsFile;
+    }
+
+    @Override
+    public void run(String... args) {
+        exitCode = projectsFile.isEmpty() ? build() : buildBatch();
+    }
+
+    @Override
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    private int build() {
+        Map<String, Long> stageMillis = new LinkedHashMap<>();
+        long start = System.nanoTime();
+        try {
+            List<BarChartConfig> charts = chartsFile.isEmpty()
+                    ? Collections.emptyList()
+                    : ChartConfiguration.load(Paths.get(chartsFile)).getCharts();
+            SheetBatch batch = sheetDataSource.fetchBuildRanges(charts);
+            start = stageDone(stageMillis, "fetch", start);
+            batch.getStoredRanges().forEach((range, fetchedAt) -> log.warn(
+                    "Range '{}' could not be fetched, building from the values fetched at {}", range,
+                    Instant.ofEpochMilli(fetchedAt)));
+
+            boolean documentWritten = latexVariableReplacerService.replaceVarsInLatexFile(batch);
+            start = stageDone(stageMillis, "variables", start);
+
+            ChartBuildReport chartReport = chartBuildRunner.run(charts, batch);
+            List<String> writtenCharts = new ArrayList<>();
+            for (ChartBuildReport.ChartResult result : chartReport.getWritten()) {
+                writtenCharts.add(result.getChart().getOutputFile());
+            }
+            start = stageDone(stageMillis, "charts", start);
+            if (!chartReport.isSuccess()) {
+                log.error("{} of {} charts failed, first: {}", chartReport.getFailures().size(), charts.size(),
+                        chartReport.getFailures().get(0).getError());
+                return EXIT_CHARTS_FAILED;
+            }
+
+            if (compile) {
+                // Everything, not only what was written: a run whose compile failed left the inputs
+                // recorded as built. The compiler skips what is unchanged since it last succeeded.
+                List<LatexCompiler.CompileResult> results = new ArrayList<>(
+                        latexCompiler.compileAll(chartReport.getOutputFiles()));
+                // The document last, it includes the charts
+                results.add(latexCompiler.compile(latexVariableReplacerService.getLatexOutputFilename(), null));
+                stageDone(stageMillis, "compile", start);
+                if (!results.stream().allMatch(LatexCompiler.CompileResult::isSuccess)) {
+                    return EXIT_COMPILE_FAILED;
+                }
+            }
+            log.info("Built (document {}, {} charts written), stages in ms: {}", documentWritten ? "written" : "unchanged",
+                    writtenCharts.size(), stageMillis);
+            return batch.getStoredRanges().isEmpty() ? 0 : EXIT_STORED_VALUES;
+        } catch (Exception e) {
+            log.error("Build failed", e);
+            return EXIT_BUILD_FAILED;
+        }
+    }
+
+    private int buildBatch() {
+        try {
+            ProjectBatchReport report = projectBatchRunner.run(Paths.get(projectsFile));
+            return report.isSuccess() ? 0 : EXIT_DOCUMENTS_FAILED;
+        } catch (Exception e) {
+            log.error("Could not read the batch from '{}'", projectsFile, e);
+            return EXIT_BUILD_FAILED;
+        }
+    }
+
+    private static long stageDone(Map<String, Long> stageMillis, String stage, long start) {
+        long now = System.nanoTime();
+        stageMillis.put(stage, TimeUnit.NANOSECONDS.toMillis(now - start));
+        return now;
+    }
+}
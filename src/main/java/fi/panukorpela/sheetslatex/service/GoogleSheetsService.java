@@ -5,34 +5,89 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
+import com.google.api.client.http.HttpResponseException;
 import com.google.api.services.sheets.v4.Sheets;
 import com.google.api.services.sheets.v4.SheetsScopes;
+import com.google.api.services.sheets.v4.model.BatchGetValuesResponse;
 import com.google.api.services.sheets.v4.model.ValueRange;
 import com.google.auth.http.HttpCredentialsAdapter;
 import com.google.auth.oauth2.GoogleCredentials;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 
 @Service
-public class GoogleSheetsService {
-    private static final String APPLICATION_NAME = "Sheets-Latex-Integration";
+@ConditionalOnProperty(name = "sheets.source", havingValue = "google", matchIfMissing = true)
+public class GoogleSheetsService implements SheetDataSource {
+    // Google only compresses responses for user agents containing "gzip" (Accept-Encoding: gzip is sent by default)
+    private static final String APPLICATION_NAME = "Sheets-Latex-Integration (gzip)";
+    // Partial responses: only the values, not the echoed range and major dimension of every range
+    private static final String GET_FIELDS = "values";
+    // The range is kept so that an empty range is still an element of the list
+    private static final String BATCH_GET_FIELDS = "valueRanges(range,values)";
+    private static final String FORMATTED_VALUE = "FORMATTED_VALUE";
     private Logger log = LoggerFactory.getLogger(GoogleSheetsService.class);
-    private Sheets sheetsService;
+    private final String credentialsPath;
+    // Built on first use: reading the credentials and setting up TLS take a while at startup
+    private volatile Sheets sheetsService;
     private String spreadsheetId;
+    private final SheetValueCache cache;
+    private final SheetsRequestLimiter requestLimiter;
+    private final MeterRegistry meterRegistry;
+    // Concurrent reads of the same ranges share one request
+    private final SingleFlight<String, List<List<Object>>> rangeFlights;
+    private final SingleFlight<String, List<List<List<Object>>>> batchFlights;
+    // Last fetched values of every range on disk, null if disabled
+    private final SheetSnapshotStore snapshotStore;
+    private final boolean offline;
+    // Build from the snapshot store when fetching fails
+    private final boolean fallbackOnError;
+    private final long serveStaleMillis;
+    // Refreshes ranges served from the snapshot store, null unless serving stale values
+    private final ExecutorService revalidator;
+    // Writes what was fetched to the snapshot store off the fetch path, null without a store
+    private final ExecutorService snapshotWriter;
+    private final AtomicBoolean snapshotFlushScheduled = new AtomicBoolean();
+    // A batch run names its spreadsheets itself and does not need config.properties
+    @Value("${batch.projects-file:}")
+    private String batchProjectsFile;
+    // Values are read as displayed in the sheet, only the tables of bar charts need just the numbers.
+    // Initialised for instances not created by Spring.
+    @Value("${sheets.value-render-option.default:FORMATTED_VALUE}")
+    private String defaultRenderOption = FORMATTED_VALUE;
+    @Value("${sheets.value-render-option.chart-tables:UNFORMATTED_VALUE}")
+    private String chartTablesRenderOption = "UNFORMATTED_VALUE";
     
     @PostConstruct
     void init() throws FileNotFoundException, IOException {
@@ -42,143 +97,559 @@ public class GoogleSheetsService {
             try (InputStream propInputStream = new FileInputStream(propFile)) {
                 props.load(propInputStream);
             }
-        } else {
+        } else if (batchProjectsFile.isEmpty()) {
             throw new RuntimeException("Property file 'config.properties' not found");
         }
         spreadsheetId = props.getProperty("spreadsheetId");
     }
 
     // Inject the path from properties
-    public GoogleSheetsService(@Value("${google.sheets.credentials.path}") String credentialsPath) throws Exception {
-        log.info(credentialsPath);
-        this.sheetsService = getSheetsService(credentialsPath);
+    public GoogleSheetsService(@Value("${google.sheets.credentials.path}") String credentialsPath,
+            @Value("${sheets.cache.ttl-seconds:60}") long cacheTtlSeconds,
+            @Value("${sheets.cache.max-entries:1000}") int cacheMaxEntries,
+            @Value("${sheets.cache.max-bytes:67108864}") long cacheMaxBytes,
+            @Value("${sheets.single-flight.reuse-millis:0}") long singleFlightReuseMillis,
+            @Value("${sheets.snapshot-store.file:.sheetslatex-snapshot.bin}") String snapshotStoreFile,
+            @Value("${sheets.snapshot-store.serve-stale-seconds:0}") long serveStaleSeconds,
+            @Value("${sheets.offline:false}") boolean offline,
+            @Value("${sheets.snapshot-store.fallback-on-error:false}") boolean fallbackOnError,
+            SheetsRequestLimiter requestLimiter, MeterRegistry meterRegistry) {
+        this.credentialsPath = credentialsPath;
+        this.offline = offline;
+        this.fallbackOnError = fallbackOnError;
+        this.snapshotStore = snapshotStoreFile.isEmpty() ? null : new SheetSnapshotStore(Paths.get(snapshotStoreFile));
+        if (offline) {
+            if (snapshotStore == null) {
+                throw new IllegalStateException("sheets.offline needs a sheets.snapshot-store.file to read from");
+            }
+            log.info("Offline: reading sheet values from '{}' only", snapshotStore.getFile().toAbsolutePath());
+        }
+        this.serveStaleMillis = TimeUnit.SECONDS.toMillis(serveStaleSeconds);
+        this.revalidator = !offline && snapshotStore != null && serveStaleMillis > 0
+                ? Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "sheets-revalidate");
+                    thread.setDaemon(true);
+                    return thread;
+                })
+                : null;
+        this.snapshotWriter = !offline && snapshotStore != null
+                ? Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "sheets-snapshot-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                })
+                : null;
+        this.requestLimiter = requestLimiter;
+        this.meterRegistry = meterRegistry;
+        this.cache = new SheetValueCache(cacheTtlSeconds * 1000, cacheMaxEntries, cacheMaxBytes);
+        this.rangeFlights = new SingleFlight<>(singleFlightReuseMillis);
+        this.batchFlights = new SingleFlight<>(singleFlightReuseMillis);
+        registerMeters();
     }
 
-    private Sheets getSheetsService(String credentialsPath) throws Exception {
-        InputStream in = new FileInputStream(credentialsPath);
-        GoogleCredentials credentials = GoogleCredentials.fromStream(in)
-                .createScoped(Collections.singleton(SheetsScopes.SPREADSHEETS_READONLY));
+    @PreDestroy
+    void shutdown() {
+        if (revalidator != null) {
+            revalidator.shutdownNow();
+        }
+        if (snapshotWriter != null) {
+            // Let a running write finish rather than interrupting it, then write what is left
+            snapshotWriter.shutdown();
+            try {
+                snapshotWriter.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            flushSnapshotStore();
+        }
+    }
 
-        return new Sheets.Builder(
-                com.google.api.client.googleapis.javanet.GoogleNetHttpTransport.newTrustedTransport(),
-                com.google.api.client.json.jackson2.JacksonFactory.getDefaultInstance(),
-                new HttpCredentialsAdapter(credentials))
-                .setApplicationName(APPLICATION_NAME)
-                .build();
+    private void registerMeters() {
+        FunctionCounter.builder("sheetslatex.sheets.requests", requestLimiter, SheetsRequestLimiter::getRequestCount)
+                .description("Sheets API requests sent, including retries").register(meterRegistry);
+        FunctionCounter.builder("sheetslatex.sheets.throttled", requestLimiter, SheetsRequestLimiter::getThrottledCount)
+                .description("Sheets API calls that waited for the rate limit").register(meterRegistry);
+        FunctionCounter.builder("sheetslatex.sheets.retried", requestLimiter, SheetsRequestLimiter::getRetriedCount)
+                .description("Sheets API requests retried after 429 or 5xx").register(meterRegistry);
+        FunctionCounter.builder("sheetslatex.sheets.cache.hits", cache, c -> c.getStats().getHits())
+                .register(meterRegistry);
+        FunctionCounter.builder("sheetslatex.sheets.cache.misses", cache, c -> c.getStats().getMisses())
+                .register(meterRegistry);
+        Gauge.builder("sheetslatex.sheets.cache.bytes", cache, c -> c.getStats().getBytes())
+                .baseUnit("bytes").register(meterRegistry);
     }
 
+    /**
+     * Records a finished values.get or values.batchGet: latency (including rate limit waits and
+     * retries), and the rows and approximate bytes of the values received, as metrics and as a
+     * JFR event.
+     */
+    private void recordFetch(SheetsFetchEvent event, String method, long startNanos,
+            List<List<List<Object>>> fetched) {
+        Timer.builder("sheetslatex.sheets.fetch")
+                .description("Sheets API call latency")
+                .tag("method", method)
+                .tag("outcome", "success")
+                .register(meterRegistry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        long rows = 0;
+        long bytes = 0;
+        for (List<List<Object>> values : fetched) {
+            if (values != null) {
+                rows += values.size();
+                bytes += SheetValueCache.estimateBytes(values);
+            }
+        }
+        DistributionSummary.builder("sheetslatex.sheets.fetch.rows").tag("method", method)
+                .register(meterRegistry).record(rows);
+        DistributionSummary.builder("sheetslatex.sheets.fetch.bytes").baseUnit("bytes").tag("method", method)
+                .register(meterRegistry).record(bytes);
+        if (event.shouldCommit()) {
+            event.rows = rows;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    private void recordFetchError(SheetsFetchEvent event, String method, long startNanos, Exception e) {
+        Timer.builder("sheetslatex.sheets.fetch")
+                .description("Sheets API call latency")
+                .tag("method", method)
+                .tag("outcome", "error")
+                .register(meterRegistry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        String status = e instanceof HttpResponseException httpError
+                ? String.valueOf(httpError.getStatusCode())
+                : e.getClass().getSimpleName();
+        Counter.builder("sheetslatex.sheets.fetch.errors").tag("method", method).tag("status", status)
+                .register(meterRegistry).increment();
+        if (event.shouldCommit()) {
+            event.error = status;
+            event.commit();
+        }
+    }
+
+    private static SheetsFetchEvent beginFetchEvent(String spreadsheetId, String method, Collection<String> ranges) {
+        SheetsFetchEvent event = new SheetsFetchEvent();
+        if (event.isEnabled()) {
+            event.spreadsheetId = spreadsheetId;
+            event.method = method;
+            event.ranges = String.join(",", ranges);
+        }
+        event.begin();
+        return event;
+    }
 
     /**
-     * Reads LaTeX variable-value pairs from the sheet, stopping at the first empty variable name.
-     * @return Map of variable name (from col C) -> value (from col B)
+     * The Sheets client, built on the first request.
+     * @throws IllegalStateException if the credentials cannot be read or the HTTP transport cannot be
+     *         set up: configuration errors, never answered with values from the snapshot store
      */
-    public Map<String, String> readLatexVariables() throws Exception {
-        String range = "LaTeX!B2:C";   // Start at B2:C2, continues down
-        ValueRange response = sheetsService.spreadsheets().values()
-                .get(spreadsheetId, range)
-                .execute();
-        List<List<Object>> rows = response.getValues();
-        Map<String, String> variables = new HashMap<>();
-        if (rows != null) {
-            for (List<Object> row : rows) {
-                // Defensive: skip if col C is missing/empty
-                if (row.size() < 2 || row.get(1) == null || row.get(1).toString().trim().isEmpty()) {
-                    break;   // Stop at first empty variable name (col C)
-                }
-                String value = row.size() > 0 ? row.get(0).toString() : "";
-                // === Check for "Ladataan..." ===
-                if ("Ladataan...".equalsIgnoreCase(value.trim())) {
-                    throw new IllegalStateException("Google Sheet value for variable '" 
-                            + row.get(1).toString().trim() + "' is still loading (\"Ladataan...\"). Open the Sheet in browser.");
-                }
-                // Check: value looks like a decimal number with comma as decimal sep
-                // E.g. "123,45" or "-0,05"
-                if (value.matches("-?\\d{1,3}(,\\d+)?")) {
-                    value = value.replace(',', '.');
-                }
-                String variable = row.get(1).toString().trim();
-                // Check for duplicate key
-                if (variables.containsKey(variable)) {
-                    throw new IllegalArgumentException("Duplicate variable name found in Google Sheet: '" + variable + "'");
-                }
-                // If variable name ends with _percent or _percentage, append \%
-                if (variable.endsWith("_percent") || variable.endsWith("_percentage")) {
-                    value = value + "\\%";
+    private Sheets sheets() {
+        Sheets sheets = sheetsService;
+        if (sheets == null) {
+            synchronized (this) {
+                sheets = sheetsService;
+                if (sheets == null) {
+                    if (offline) {
+                        throw new IllegalStateException("Offline, the Sheets API is not used");
+                    }
+                    sheets = getSheetsService(credentialsPath);
+                    sheetsService = sheets;
                 }
-                variables.put(variable, value);
             }
         }
-        return variables;
+        return sheets;
     }
-    
+
+    private Sheets getSheetsService(String credentialsPath) {
+        log.info(credentialsPath);
+        GoogleCredentials credentials;
+        try (InputStream in = new FileInputStream(credentialsPath)) {
+            credentials = GoogleCredentials.fromStream(in)
+                    .createScoped(Collections.singleton(SheetsScopes.SPREADSHEETS_READONLY));
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read the Google credentials '" + credentialsPath + "'", e);
+        }
+        try {
+            return new Sheets.Builder(
+                    com.google.api.client.googleapis.javanet.GoogleNetHttpTransport.newTrustedTransport(),
+                    com.google.api.client.json.jackson2.JacksonFactory.getDefaultInstance(),
+                    new HttpCredentialsAdapter(credentials))
+                    .setApplicationName(APPLICATION_NAME)
+                    .build();
+        } catch (GeneralSecurityException | IOException e) {
+            throw new IllegalStateException("Could not set up the HTTP transport", e);
+        }
+    }
+
+
+    @Override
+    public Map<String, String> readLatexVariables() throws Exception {
+        return SheetValues.toLatexVariables(getValues(LATEX_VARIABLES_RANGE, defaultRenderOption));
+    }
+
+    @Override
+    public List<String[]> getTableFromSheet(String tabName, String rangeString, boolean errorForDataAfterRange) throws IOException {
+        return SheetValues.toTable(getValues(SheetValues.tableCheckRange(tabName, rangeString), defaultRenderOption),
+                tabName, rangeString, errorForDataAfterRange);
+    }
+
     /**
-     * Returns a table of values from the given tab and range in the Google Sheet.
-     * @param tabName e.g. "ArticleCounts"
-     * @param rangeString e.g. "A2:B18"
-     * @return List of String arrays (one per row)
-     * @throws IOException if Sheets API fails
+     * Reads the table of a bar chart with {@code sheets.value-render-option.chart-tables}.
      */
-    public List<String[]> getTableFromSheet(String tabName, String rangeString, boolean errorForDataAfterRange) throws IOException {
-        // Parse start and end rows from rangeString (e.g., "A2:B18")
-        Matcher matcher = Pattern.compile("([A-Z]+)(\\d+):([A-Z]+)(\\d+)").matcher(rangeString);
-        if (!matcher.matches()) {
-            throw new IllegalArgumentException("rangeString must be like A2:B18");
-        }
+    @Override
+    public SheetTable getSheetTable(String tabName, String rangeString, boolean errorForDataAfterRange) throws IOException {
+        return SheetValues.toSheetTable(getValues(SheetValues.tableCheckRange(tabName, rangeString), chartTablesRenderOption),
+                tabName, rangeString, errorForDataAfterRange);
+    }
+
+    /**
+     * Fetches all the given ranges with a single values.batchGet request.
+     */
+    @Override
+    public SheetBatch batchGet(Collection<String> ranges) throws IOException {
+        return batchGet(spreadsheetId, ranges);
+    }
+
+    /**
+     * Reads any spreadsheet the credentials can see. All spreadsheets share this service's
+     * HTTP transport, credentials and cache.
+     */
+    @Override
+    public SheetBatch batchGet(String spreadsheetId, Collection<String> ranges) throws IOException {
+        return batchGet(spreadsheetId, ranges, Set.of(), false);
+    }
 
-        String colStart = matcher.group(1);
-        int rowStart = Integer.parseInt(matcher.group(2));
-        String colEnd = matcher.group(3);
-        int rowEnd = Integer.parseInt(matcher.group(4));
-        int rowEndPlusOne = rowEnd + 1;
-        String checkRange = tabName + "!" + colStart + rowStart + ":" + colEnd + rowEndPlusOne;
+    @Override
+    public SheetBatch fetchBuildRanges(List<BarChartConfig> charts) throws IOException {
+        return fetchBuildRanges(charts, false);
+    }
 
-        ValueRange response = sheetsService.spreadsheets().values()
-                .get(spreadsheetId, checkRange)
-                .execute();
+    /**
+     * Fetches the build ranges without looking at the cache when fresh; the cache is still
+     * updated with what is fetched.
+     */
+    @Override
+    public SheetBatch fetchBuildRanges(List<BarChartConfig> charts, boolean fresh) throws IOException {
+        return batchGet(spreadsheetId, SheetDataSource.buildRanges(charts), chartTableRanges(charts), fresh);
+    }
 
-        List<List<Object>> values = response.getValues();
-        List<String[]> result = new ArrayList<>();
+    @Override
+    public SheetBatch fetchBuildRanges(String spreadsheetId, List<BarChartConfig> charts) throws IOException {
+        return batchGet(spreadsheetId, SheetDataSource.buildRanges(charts), chartTableRanges(charts), false);
+    }
 
-        int expectedRows = rowEnd - rowStart + 1;
+    /**
+     * The normalised table ranges of the bar charts, read like {@link #getSheetTable}. Multicolour
+     * charts have a fixed 0-100 axis and may print their values, so they read the values as
+     * displayed, unless a bar chart reads the same range.
+     */
+    private static Set<String> chartTableRanges(List<BarChartConfig> charts) {
+        Set<String> ranges = new LinkedHashSet<>();
+        if (charts != null) {
+            for (BarChartConfig chart : charts) {
+                if ("writeBarChartFromSheets".equals(chart.getMethodName())) {
+                    ranges.add(SheetValueCache.normalizeRange(SheetValues.tableCheckRange(chart.getTab(), chart.getRange())));
+                }
+            }
+        }
+        return ranges;
+    }
 
-        if (values != null) {
-            // Add only the expected number of rows
-            int rowsToReturn = Math.min(expectedRows, values.size());
-            for (int i = 0; i < rowsToReturn; i++) {
-                List<Object> row = values.get(i);
-                String[] rowArr = new String[row.size()];
-                for (int j = 0; j < row.size(); j++) {
-                    rowArr[j] = row.get(j).toString();
+    /**
+     * @param chartTableRanges normalised ranges fetched with {@code sheets.value-render-option.chart-tables},
+     *        all others are fetched with {@code sheets.value-render-option.default}
+     */
+    private SheetBatch batchGet(String spreadsheetId, Collection<String> ranges, Set<String> chartTableRanges,
+            boolean fresh) throws IOException {
+        SheetBatch batch = new SheetBatch();
+        Map<String, String> renderOptions = new LinkedHashMap<>();
+        for (String range : ranges) {
+            renderOptions.put(range, chartTableRanges.contains(SheetValueCache.normalizeRange(range))
+                    ? chartTablesRenderOption
+                    : defaultRenderOption);
+        }
+        List<String> missingRanges = new ArrayList<>();
+        for (String range : renderOptions.keySet()) {
+            List<List<Object>> cached = fresh ? null : cache.get(valuesKey(spreadsheetId, renderOptions.get(range)), range);
+            if (cached != null) {
+                batch.put(range, cached);
+            } else {
+                missingRanges.add(range);
+            }
+        }
+        if (missingRanges.isEmpty()) {
+            return batch;
+        }
+        List<String> staleRanges = new ArrayList<>();
+        for (Iterator<String> it = missingRanges.iterator(); it.hasNext();) {
+            String range = it.next();
+            List<List<Object>> stored = fresh && !offline ? null
+                    : fromSnapshotStore(spreadsheetId, renderOptions.get(range), range);
+            if (stored != null) {
+                batch.put(range, stored);
+                staleRanges.add(range);
+                it.remove();
+            }
+        }
+        if (!staleRanges.isEmpty() && !offline) {
+            log.info("Serving {} ranges of {} from the snapshot store while refreshing them", staleRanges.size(), spreadsheetId);
+            revalidator.execute(() -> {
+                try {
+                    fetchBatches(spreadsheetId, staleRanges, renderOptions, new SheetBatch());
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Refreshing ranges of {} served from the snapshot store failed", spreadsheetId, e);
                 }
-                result.add(rowArr);
-            }
-            // If there is an extra row, check if it has data
-            if (values.size() > expectedRows) {
-                List<Object> extraRow = values.get(expectedRows);
-                boolean hasData = extraRow.stream().anyMatch(cell -> cell != null && !cell.toString().trim().isEmpty());
-                if (hasData && errorForDataAfterRange) {
-                    throw new IllegalStateException("Range " + tabName + "!" + rangeString +
-                            " is followed by non-empty data in row " + rowEndPlusOne);
+            });
+        }
+        try {
+            fetchBatches(spreadsheetId, missingRanges, renderOptions, batch);
+        } catch (IOException e) {
+            if (!fallbackOnError || snapshotStore == null) {
+                throw e;
+            }
+            // Build from the last fetched values if there are values for every range
+            Map<String, SheetSnapshotStore.Snapshot> fallback = new LinkedHashMap<>();
+            long oldestFetch = Long.MAX_VALUE;
+            for (String range : missingRanges) {
+                SheetSnapshotStore.Snapshot snapshot = snapshotStore.get(valuesKey(spreadsheetId, renderOptions.get(range)), range);
+                if (snapshot == null) {
+                    throw e;
                 }
+                fallback.put(range, snapshot);
+                oldestFetch = Math.min(oldestFetch, snapshot.getFetchedAtMillis());
             }
+            log.warn("Fetching {} ranges of {} failed, using values fetched at {} or later from the snapshot store: {}",
+                    missingRanges.size(), spreadsheetId, Instant.ofEpochMilli(oldestFetch), e.toString());
+            fallback.forEach((range, snapshot) -> batch.putStored(range, snapshot.getValues(), snapshot.getFetchedAtMillis()));
+            snapshotCounter("error").increment(missingRanges.size());
         }
-        return result;
+        return batch;
     }
 
+    /**
+     * Fetches the ranges into the batch, one request per render option.
+     */
+    private void fetchBatches(String spreadsheetId, List<String> ranges, Map<String, String> renderOptions,
+            SheetBatch batch) throws IOException {
+        // A request renders all its ranges the same way, so one request per render option
+        Map<String, List<String>> rangesByOption = new LinkedHashMap<>();
+        for (String range : ranges) {
+            rangesByOption.computeIfAbsent(renderOptions.get(range), option -> new ArrayList<>()).add(range);
+        }
+        for (Map.Entry<String, List<String>> group : rangesByOption.entrySet()) {
+            List<String> groupRanges = group.getValue();
+            StringBuilder flightKey = new StringBuilder(valuesKey(spreadsheetId, group.getKey()));
+            for (String range : groupRanges) {
+                flightKey.append('|').append(SheetValueCache.normalizeRange(range));
+            }
+            List<List<List<Object>>> fetched = batchFlights.get(flightKey.toString(),
+                    () -> fetchBatch(spreadsheetId, group.getKey(), groupRanges));
+            for (int i = 0; i < groupRanges.size(); i++) {
+                batch.put(groupRanges.get(i), fetched.get(i));
+            }
+        }
+    }
 
     /**
-     * Fetches a value (or row) from a Google Sheet.
-     * @param spreadsheetId The Sheet ID from the URL
-     * @param range E.g. "Sheet1!B2"
-     * @return List of values in the range
+     * Values of the range from the snapshot store, if they are to be used without fetching: always
+     * when offline, otherwise if they are at most sheets.snapshot-store.serve-stale-seconds old.
+     * @return the stored values or null if the range is to be fetched
+     * @throws IllegalStateException if offline and the range has never been fetched, or if the
+     *         Sheets client cannot be built
      */
+    private List<List<Object>> fromSnapshotStore(String spreadsheetId, String valueRenderOption, String range) {
+        if (!offline && revalidator == null) {
+            return null;
+        }
+        SheetSnapshotStore.Snapshot snapshot = snapshotStore.get(valuesKey(spreadsheetId, valueRenderOption), range);
+        if (offline) {
+            if (snapshot == null) {
+                throw new IllegalStateException("Offline, and range '" + range + "' of " + spreadsheetId
+                        + " is not in the snapshot store '" + snapshotStore.getFile() + "'; build once online first");
+            }
+            snapshotCounter("offline").increment();
+            return snapshot.getValues();
+        }
+        if (snapshot == null || System.currentTimeMillis() - snapshot.getFetchedAtMillis() > serveStaleMillis) {
+            return null;
+        }
+        // Bad credentials fail the build rather than only the background refresh
+        sheets();
+        snapshotCounter("stale").increment();
+        return snapshot.getValues();
+    }
+
+    /**
+     * Puts the fetched values in the snapshot store and has the store written in the background.
+     * The ranges fetched while a write is scheduled or running go to the file with the next one,
+     * so a build's fetches end up in a write or two rather than one each.
+     */
+    private void storeSnapshot(String valuesKey, Map<String, List<List<Object>>> valuesByRange) {
+        if (snapshotStore == null) {
+            return;
+        }
+        snapshotStore.put(valuesKey, valuesByRange, System.currentTimeMillis());
+        if (snapshotFlushScheduled.compareAndSet(false, true)) {
+            try {
+                snapshotWriter.execute(() -> {
+                    snapshotFlushScheduled.set(false);
+                    flushSnapshotStore();
+                });
+            } catch (RejectedExecutionException e) {
+                // Shutting down, flushed by shutdown()
+                snapshotFlushScheduled.set(false);
+            }
+        }
+    }
+
+    private void flushSnapshotStore() {
+        try {
+            snapshotStore.flush();
+        } catch (IOException e) {
+            log.warn("Could not update the snapshot store '{}'", snapshotStore.getFile(), e);
+        }
+    }
+
+    private Counter snapshotCounter(String reason) {
+        return Counter.builder("sheetslatex.sheets.snapshot.served")
+                .description("Ranges served from the snapshot store instead of the Sheets API")
+                .tag("reason", reason).register(meterRegistry);
+    }
+
+    /**
+     * The key under which the values of a spreadsheet read with a render option are cached, shared
+     * and stored, so that values rendered differently are never mixed.
+     */
+    static String valuesKey(String spreadsheetId, String valueRenderOption) {
+        return spreadsheetId + "#" + valueRenderOption;
+    }
+
+    /**
+     * Dates and times stay formatted strings when numbers are not, instead of becoming serial day numbers.
+     */
+    private static String dateTimeRenderOption(String valueRenderOption) {
+        return FORMATTED_VALUE.equals(valueRenderOption) ? null : "FORMATTED_STRING";
+    }
+
+    private List<List<List<Object>>> fetchBatch(String spreadsheetId, String valueRenderOption,
+            List<String> missingRanges) throws IOException {
+        Sheets.Spreadsheets.Values.BatchGet request = sheets().spreadsheets().values()
+                .batchGet(spreadsheetId)
+                .setRanges(missingRanges)
+                .setValueRenderOption(valueRenderOption)
+                .setDateTimeRenderOption(dateTimeRenderOption(valueRenderOption))
+                .setFields(BATCH_GET_FIELDS);
+        SheetsFetchEvent event = beginFetchEvent(spreadsheetId, "batchGet", missingRanges);
+        long start = System.nanoTime();
+        BatchGetValuesResponse response;
+        try {
+            response = requestLimiter.execute(request::execute);
+        } catch (IOException | RuntimeException e) {
+            recordFetchError(event, "batchGet", start, e);
+            throw e;
+        }
+        List<ValueRange> valueRanges = response.getValueRanges();
+        if (valueRanges == null || valueRanges.size() != missingRanges.size()) {
+            throw new IllegalStateException("batchGet returned " + (valueRanges == null ? 0 : valueRanges.size())
+                    + " ranges, expected " + missingRanges.size());
+        }
+        // The API returns the ranges in request order, but in its own normalised A1 form
+        List<List<List<Object>>> fetched = new ArrayList<>(missingRanges.size());
+        Map<String, List<List<Object>>> valuesByRange = new LinkedHashMap<>();
+        for (int i = 0; i < missingRanges.size(); i++) {
+            List<List<Object>> values = valueRanges.get(i).getValues();
+            cache.put(valuesKey(spreadsheetId, valueRenderOption), missingRanges.get(i), values);
+            fetched.add(values);
+            valuesByRange.put(missingRanges.get(i), values);
+        }
+        recordFetch(event, "batchGet", start, fetched);
+        storeSnapshot(valuesKey(spreadsheetId, valueRenderOption), valuesByRange);
+        log.info("Fetched {} ranges of {} in one batchGet", missingRanges.size(), spreadsheetId);
+        return fetched;
+    }
+
+    @Override
     public List<Object> readRange(String range) throws Exception {
-        ValueRange response = sheetsService.spreadsheets().values()
-                .get(spreadsheetId, range)
-                .execute();
-        return response.getValues() != null && !response.getValues().isEmpty()
-                ? response.getValues().get(0)
+        List<List<Object>> values = getValues(range, defaultRenderOption);
+        return !values.isEmpty()
+                ? values.get(0)
                 : Collections.emptyList();
     }
+
+    /**
+     * Fetches the raw values of a range, serving them from the cache while they are fresh.
+     * Concurrent calls for the same range wait for one request.
+     */
+    private List<List<Object>> getValues(String range, String valueRenderOption) throws IOException {
+        String valuesKey = valuesKey(spreadsheetId, valueRenderOption);
+        List<List<Object>> values = cache.get(valuesKey, range);
+        if (values != null) {
+            return values;
+        }
+        values = fromSnapshotStore(spreadsheetId, valueRenderOption, range);
+        if (values != null) {
+            if (!offline) {
+                revalidator.execute(() -> {
+                    try {
+                        rangeFlights.get(SheetValueCache.key(valuesKey, range), () -> fetchRange(range, valueRenderOption));
+                    } catch (IOException | RuntimeException e) {
+                        log.warn("Refreshing '{}' served from the snapshot store failed", range, e);
+                    }
+                });
+            }
+            return values;
+        }
+        try {
+            return rangeFlights.get(SheetValueCache.key(valuesKey, range), () -> fetchRange(range, valueRenderOption));
+        } catch (IOException e) {
+            SheetSnapshotStore.Snapshot snapshot = fallbackOnError && snapshotStore != null
+                    ? snapshotStore.get(valuesKey, range)
+                    : null;
+            if (snapshot == null) {
+                throw e;
+            }
+            log.warn("Fetching '{}' failed, using the values fetched at {} from the snapshot store: {}",
+                    range, Instant.ofEpochMilli(snapshot.getFetchedAtMillis()), e.toString());
+            snapshotCounter("error").increment();
+            return snapshot.getValues();
+        }
+    }
+
+    private List<List<Object>> fetchRange(String range, String valueRenderOption) throws IOException {
+        Sheets.Spreadsheets.Values.Get request = sheets().spreadsheets().values()
+                .get(spreadsheetId, range)
+                .setValueRenderOption(valueRenderOption)
+                .setDateTimeRenderOption(dateTimeRenderOption(valueRenderOption))
+                .setFields(GET_FIELDS);
+        SheetsFetchEvent event = beginFetchEvent(spreadsheetId, "get", List.of(range));
+        long start = System.nanoTime();
+        ValueRange response;
+        try {
+            response = requestLimiter.execute(request::execute);
+        } catch (IOException | RuntimeException e) {
+            recordFetchError(event, "get", start, e);
+            throw e;
+        }
+        List<List<Object>> fetched = response.getValues() != null ? response.getValues() : Collections.emptyList();
+        recordFetch(event, "get", start, List.of(fetched));
+        cache.put(valuesKey(spreadsheetId, valueRenderOption), range, fetched);
+        storeSnapshot(valuesKey(spreadsheetId, valueRenderOption), Map.of(range, fetched));
+        return fetched;
+    }
+
+    @Override
+    public void invalidateCache() {
+        cache.invalidateAll();
+        rangeFlights.forgetResults();
+        batchFlights.forgetResults();
+        log.info("Sheet value cache invalidated");
+    }
+
+    @Override
+    public SheetValueCache.Stats getCacheStats() {
+        return cache.getStats();
+    }
 }
 
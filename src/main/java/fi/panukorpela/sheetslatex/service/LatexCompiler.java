@@ -1,54 +1,366 @@
 package fi.panukorpela.sheetslatex.service;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Runs pdflatex. Compilations run on a bounded pool of worker threads, each with a timeout
+ * after which the TeX process is killed.
+ * <p>
+ * A compilation reruns pdflatex while a pass changes the .aux, .toc or .lof file, at most
+ * latex.compile.max-passes times, so cross-references settle without a fixed number of passes.
+ * pdflatex records the files it reads (-recorder); if the .tex file and all those files are the
+ * same as at the last successful compilation and the PDF exists, nothing is run.
+ * <p>
+ * With latex.compile.precompiled-preamble enabled, files whose preamble ends with
+ * {@link #PREAMBLE_END_MARKER} (all generated charts) are compiled against a format in which
+ * that preamble has been dumped once, so the packages are not loaded again for every chart.
+ */
+@Service
 public class LatexCompiler {
+    /**
+     * Ends the part of a preamble that can be precompiled. Expands to \relax when compiling
+     * normally, and to mylatexformat's \endofdump when compiling with a dumped format.
+     */
+    public static final String PREAMBLE_END_MARKER = "\\csname endofdump\\endcsname";
     private static Logger log = LoggerFactory.getLogger(LatexCompiler.class);
+    private static final int LOG_TAIL_LINES = 20;
+    // Files a pass writes and the next pass reads
+    private static final List<String> RERUN_FILE_EXTENSIONS = List.of(".aux", ".toc", ".lof");
+    private final String pdflatexPath;
+    private final long timeoutSeconds;
+    private final ExecutorService executor;
+    private final PreambleFormatCache formatCache;
+    private final MeterRegistry meterRegistry;
+    private final BuildManifest buildManifest;
+    private final int maxPasses;
+    private final boolean skipUnchanged;
+
+    public LatexCompiler(@Value("${latex.pdflatex.path:/Library/TeX/texbin/pdflatex}") String pdflatexPath,
+            @Value("${latex.compile.concurrency:0}") int concurrency,
+            @Value("${latex.compile.timeout-seconds:120}") long timeoutSeconds,
+            @Value("${latex.compile.precompiled-preamble:false}") boolean precompiledPreamble,
+            @Value("${latex.compile.format-dir:.sheetslatex-formats}") String formatDir,
+            @Value("${latex.compile.max-passes:3}") int maxPasses,
+            @Value("${latex.compile.skip-unchanged:true}") boolean skipUnchanged,
+            BuildManifest buildManifest, MeterRegistry meterRegistry) {
+        this.pdflatexPath = pdflatexPath;
+        this.meterRegistry = meterRegistry;
+        this.buildManifest = buildManifest;
+        this.maxPasses = Math.max(1, maxPasses);
+        this.skipUnchanged = skipUnchanged;
+        this.timeoutSeconds = timeoutSeconds;
+        this.formatCache = precompiledPreamble
+                ? new PreambleFormatCache(Paths.get(formatDir), pdflatexPath, timeoutSeconds)
+                : null;
+        int threads = concurrency > 0 ? concurrency : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "pdflatex-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
 
     /**
      * Compiles the given LaTeX file with pdflatex.
      * @param texFile      Path to the .tex file
-     * @param outputDir    Output directory for PDF (can be null to use default)
+     * @param outputDir    Output directory for PDF (can be null to use the directory of the .tex file)
      * @return true if compilation succeeded, false otherwise
      */
-    public static boolean runPdflatex(String texFile, String outputDir) {
-        try {
-            ProcessBuilder pb;
-            if (outputDir != null && !outputDir.isEmpty()) {
-                pb = new ProcessBuilder(
-                        "/Library/TeX/texbin/pdflatex", "-interaction=nonstopmode", "-output-directory", outputDir, texFile
-                );
+    public boolean runPdflatex(String texFile, String outputDir) {
+        return compile(texFile, outputDir).isSuccess();
+    }
+
+    /**
+     * Compiles the given LaTeX file on the calling thread.
+     */
+    public CompileResult compile(String texFile, String outputDir) {
+        Path tex = Paths.get(texFile).toAbsolutePath();
+        Path outDir = outputDir != null && !outputDir.isEmpty()
+                ? Paths.get(outputDir).toAbsolutePath()
+                : tex.getParent();
+        String formatName = null;
+        if (formatCache != null) {
+            try {
+                formatName = formatCache.formatFor(tex);
+            } catch (IOException e) {
+                log.warn("Could not read '{}' for its preamble", tex, e);
+            }
+        }
+        String jobName = jobName(tex);
+        Path pdf = outDir.resolve(jobName + ".pdf");
+        Path flsFile = outDir.resolve(jobName + ".fls");
+        long start = System.nanoTime();
+        if (skipUnchanged && Files.exists(pdf)) {
+            String inputHash = inputHash(tex, flsFile, formatName);
+            if (inputHash != null && buildManifest.isUpToDate(pdf.toString(), inputHash)) {
+                log.info("'{}' and its inputs are unchanged, not compiling", tex);
+                return new CompileResult(tex, pdf, 0, System.nanoTime() - start, false, 0);
+            }
+        }
+        CompileResult result = compilePasses(tex, outDir, formatName, start);
+        if (!result.isSuccess() && !result.isTimedOut() && formatName != null) {
+            // E.g. a format dumped by another TeX version; fall back to loading the preamble
+            log.warn("Compiling '{}' with format '{}' failed, retrying without it", tex, formatName);
+            formatCache.forget(formatName);
+            formatName = null;
+            result = compilePasses(tex, outDir, null, start);
+        }
+        if (skipUnchanged) {
+            String inputHash = result.isSuccess() ? inputHash(tex, flsFile, formatName) : null;
+            if (inputHash != null) {
+                buildManifest.record(pdf.toString(), inputHash);
             } else {
-                pb = new ProcessBuilder(
-                        "/Library/TeX/texbin/pdflatex", "-interaction=nonstopmode", texFile
-                );
+                buildManifest.forget(pdf.toString());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Hash of everything the last run read, or null if unknown (no recorder file, or an input is gone).
+     */
+    private String inputHash(Path tex, Path flsFile, String formatName) {
+        if (!Files.exists(flsFile)) {
+            return null;
+        }
+        try {
+            BuildManifest.InputHash hash = new BuildManifest.InputHash()
+                    .add(pdflatexPath)
+                    .add(formatName)
+                    .add(tex);
+            return RecorderInputs.read(flsFile).addTo(hash, tex.getParent()).toHex();
+        } catch (IOException e) {
+            log.debug("Could not hash the inputs of '{}': {}", tex, e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Runs pdflatex until the files read back by the next pass stop changing.
+     */
+    private CompileResult compilePasses(Path tex, Path outDir, String formatName, long start) {
+        String jobName = jobName(tex);
+        String before = rerunFilesHash(outDir, jobName);
+        CompileResult result = null;
+        int passes = 0;
+        while (passes < maxPasses) {
+            int pass = ++passes;
+            PdflatexEvent event = new PdflatexEvent();
+            event.begin();
+            result = compile(tex, outDir, formatName);
+            record(event, result, formatName, pass);
+            if (!result.isSuccess()) {
+                break;
+            }
+            String after = rerunFilesHash(outDir, jobName);
+            if (after.equals(before)) {
+                break;
+            }
+            if (pass == maxPasses) {
+                log.warn("'{}' still changed its .aux/.toc/.lof after {} passes", tex, maxPasses);
             }
+            before = after;
+        }
+        return new CompileResult(tex, result.getPdfFile(), result.getExitCode(), System.nanoTime() - start,
+                result.isTimedOut(), passes);
+    }
+
+    private static String rerunFilesHash(Path outDir, String jobName) {
+        BuildManifest.InputHash hash = new BuildManifest.InputHash();
+        for (String extension : RERUN_FILE_EXTENSIONS) {
+            Path file = outDir.resolve(jobName + extension);
+            try {
+                hash.add(Files.readAllBytes(file));
+            } catch (IOException e) {
+                // Missing, as before the first pass
+                hash.add((String) null);
+            }
+        }
+        return hash.toHex();
+    }
+
+    private void record(PdflatexEvent event, CompileResult result, String formatName, int pass) {
+        Timer.builder("sheetslatex.latex.compile").description("pdflatex runs")
+                .tag("exit_code", result.isTimedOut() ? "timeout" : String.valueOf(result.getExitCode()))
+                .tag("precompiled_preamble", String.valueOf(formatName != null))
+                .register(meterRegistry).record(result.getDurationNanos(), TimeUnit.NANOSECONDS);
+        if (event.shouldCommit()) {
+            event.texFile = result.getTexFile().toString();
+            event.format = formatName;
+            event.exitCode = result.getExitCode();
+            event.timedOut = result.isTimedOut();
+            event.pass = pass;
+            event.commit();
+        }
+    }
+
+    private CompileResult compile(Path tex, Path outDir, String formatName) {
+        String jobName = jobName(tex);
+        long start = System.nanoTime();
+        Process process = null;
+        try {
+            Files.createDirectories(outDir);
+            // -recorder lists the files read in <jobname>.fls, for skipping unchanged builds
+            List<String> command = new ArrayList<>(List.of(pdflatexPath, "-interaction=nonstopmode", "-recorder",
+                    "-jobname=" + jobName, "-output-directory", outDir.toString()));
+            if (formatName != null) {
+                command.add("-fmt=" + formatName);
+            }
+            command.add(tex.toString());
+            ProcessBuilder pb = new ProcessBuilder(command);
+            if (formatName != null) {
+                // Look for formats in our cache first, then (the trailing separator) in TeX's default places
+                pb.environment().put("TEXFORMATS", formatCache.getFormatDir() + File.pathSeparator);
+            }
+            // Run next to the .tex file so relative \input paths resolve as when compiling by hand
+            pb.directory(tex.getParent().toFile());
             pb.redirectErrorStream(true);
-            Process process = pb.start();
-            // Print pdflatex output to console (optional but useful)
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    log.debug(line);
-                }
-            }
-            int exitCode = process.waitFor();
+            // pdflatex writes everything to <jobname>.log as well, so the console output is not needed
+            pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+            process = pb.start();
+            // Nothing to say to TeX, so it gets EOF instead of waiting for input
+            process.getOutputStream().close();
+            if (!process.waitFor(timeoutSeconds, TimeUnit.SECONDS)) {
+                destroyProcessTree(process);
+                log.error("pdflatex timed out after {} s compiling '{}'", timeoutSeconds, tex);
+                return new CompileResult(tex, outDir.resolve(jobName + ".pdf"), -1, System.nanoTime() - start, true);
+            }
+            int exitCode = process.exitValue();
+            CompileResult result = new CompileResult(tex, outDir.resolve(jobName + ".pdf"), exitCode,
+                    System.nanoTime() - start, false);
             if (exitCode == 0) {
-                log.info("PDF generated successfully!");
-                return true;
+                log.info("PDF generated successfully: {} ({} ms)", result.getPdfFile(),
+                        TimeUnit.NANOSECONDS.toMillis(result.getDurationNanos()));
             } else {
-                log.error("pdflatex failed with exit code " + exitCode);
-                return false;
+                log.error("pdflatex failed with exit code {} compiling '{}':\n{}", exitCode, tex,
+                        logTail(outDir.resolve(jobName + ".log")));
             }
-        } catch (IOException | InterruptedException e) {
-            e.printStackTrace();
-            return false;
+            return result;
+        } catch (IOException e) {
+            log.error("Could not run pdflatex for '{}'", tex, e);
+            return new CompileResult(tex, outDir.resolve(jobName + ".pdf"), -1, System.nanoTime() - start, false);
+        } catch (InterruptedException e) {
+            // Shutdown or a cancelled build: TeX must not outlive the wait for it
+            destroyProcessTree(process);
+            Thread.currentThread().interrupt();
+            return new CompileResult(tex, outDir.resolve(jobName + ".pdf"), -1, System.nanoTime() - start, false);
         }
     }
-}
 
+    /**
+     * Kills a TeX process and whatever it started (e.g. mktexpk for a missing font).
+     */
+    static void destroyProcessTree(Process process) {
+        if (process != null) {
+            process.descendants().forEach(ProcessHandle::destroyForcibly);
+            process.destroyForcibly();
+        }
+    }
+
+    /**
+     * Queues the given LaTeX file for compilation on the worker pool.
+     */
+    public CompletableFuture<CompileResult> compileAsync(String texFile, String outputDir) {
+        return CompletableFuture.supplyAsync(() -> compile(texFile, outputDir), executor);
+    }
+
+    /**
+     * Compiles all the given files concurrently, each next to its .tex file, and waits for them.
+     * Every file gets its own job name, so charts in the same directory do not overwrite each
+     * other's .aux and .log files.
+     */
+    public List<CompileResult> compileAll(Collection<String> texFiles) {
+        List<CompletableFuture<CompileResult>> futures = texFiles.stream()
+                .map(texFile -> compileAsync(texFile, null))
+                .toList();
+        return futures.stream().map(CompletableFuture::join).toList();
+    }
+
+    private static String jobName(Path tex) {
+        String fileName = tex.getFileName().toString();
+        return fileName.endsWith(".tex") ? fileName.substring(0, fileName.length() - 4) : fileName;
+    }
+
+    private static String logTail(Path logFile) {
+        try {
+            List<String> lines = Files.readAllLines(logFile, StandardCharsets.ISO_8859_1);
+            return String.join("\n", lines.subList(Math.max(0, lines.size() - LOG_TAIL_LINES), lines.size()));
+        } catch (IOException e) {
+            return "(no log file " + logFile + ")";
+        }
+    }
+
+    public static class CompileResult {
+        private final Path texFile;
+        private final Path pdfFile;
+        private final int exitCode;
+        private final long durationNanos;
+        private final boolean timedOut;
+        private final int passes;
+
+        public CompileResult(Path texFile, Path pdfFile, int exitCode, long durationNanos, boolean timedOut) {
+            this(texFile, pdfFile, exitCode, durationNanos, timedOut, 1);
+        }
+
+        /**
+         * @param passes pdflatex runs, 0 if compiling was skipped as the inputs were unchanged
+         */
+        public CompileResult(Path texFile, Path pdfFile, int exitCode, long durationNanos, boolean timedOut,
+                int passes) {
+            this.texFile = texFile;
+            this.pdfFile = pdfFile;
+            this.exitCode = exitCode;
+            this.durationNanos = durationNanos;
+            this.timedOut = timedOut;
+            this.passes = passes;
+        }
+
+        public Path getTexFile() { return texFile; }
+        public Path getPdfFile() { return pdfFile; }
+        public int getExitCode() { return exitCode; }
+        public long getDurationNanos() { return durationNanos; }
+        public boolean isTimedOut() { return timedOut; }
+        public boolean isSuccess() { return exitCode == 0 && !timedOut; }
+        public int getPasses() { return passes; }
+        public boolean isSkipped() { return passes == 0; }
+
+        @Override
+        public String toString() {
+            return "CompileResult{" +
+                   "texFile=" + texFile +
+                   ", exitCode=" + exitCode +
+                   ", durationMs=" + TimeUnit.NANOSECONDS.toMillis(durationNanos) +
+                   ", timedOut=" + timedOut +
+                   ", passes=" + passes +
+                   '}';
+        }
+    }
+}
@@ -5,29 +5,49 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Properties;
-import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import fi.panukorpela.sheetslatex.service.template.CompiledTemplateCache;
+import fi.panukorpela.sheetslatex.service.template.TemplateRenderResult;
+import fi.panukorpela.sheetslatex.service.template.TemplateScanner;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jakarta.annotation.PostConstruct;
 
 @Service
 public class LatexVariableReplacerService {
     private Logger log = LoggerFactory.getLogger(LatexVariableReplacerService.class);
     @Autowired
-    private GoogleSheetsService googleSheetsService;
+    private SheetDataSource sheetDataSource;
+    @Autowired
+    private BuildManifest buildManifest;
+    @Autowired
+    private MeterRegistry meterRegistry;
     private String latexTemplateFilename;
     private String latexOutputFilename;
+    // Keep templates parsed between builds (server/watch use) instead of streaming them every time
+    @Value("${latex.template.cache:false}")
+    private boolean templateCacheEnabled;
+    private final CompiledTemplateCache templateCache = new CompiledTemplateCache();
+    // A batch run names its templates itself and does not need config.properties
+    @Value("${batch.projects-file:}")
+    private String batchProjectsFile;
     
     @PostConstruct
     void init() throws FileNotFoundException, IOException {
@@ -37,69 +57,119 @@ public class LatexVariableReplacerService {
             try (InputStream propInputStream = new FileInputStream(propFile)) {
                 props.load(propInputStream);
             }
-        } else {
+        } else if (batchProjectsFile.isEmpty()) {
             throw new RuntimeException("Property file 'config.properties' not found");
         }
         latexTemplateFilename = props.getProperty("latexTemplateFilename");
         latexOutputFilename = props.getProperty("latexOutputFilename");
     }
     
-    public void replaceVarsInLatexFile() throws Exception {
-        Map<String, String> variables = googleSheetsService.readLatexVariables();
-        String content = new String(Files.readAllBytes(Paths.get(latexTemplateFilename)));
+    public String getLatexTemplateFilename() {
+        return latexTemplateFilename;
+    }
 
-        // Regex to match \VAR{...}
-        Pattern pattern = Pattern.compile("\\\\VAR\\{([^}]+)\\}");
-        Matcher matcher = pattern.matcher(content);
+    public String getLatexOutputFilename() {
+        return latexOutputFilename;
+    }
 
-        StringBuffer sb = new StringBuffer();
-        int replacements = 0;
-        while (matcher.find()) {
-            String varName = matcher.group(1);
-            String replacement = variables.get(varName);
-            // If the variable is missing, keep the placeholder as is
-            if (replacement != null) {
-                matcher.appendReplacement(sb, Matcher.quoteReplacement(replacement));
-                log.info("Replaced \\VAR{{}} with '{}'", varName, replacement);
-                replacements++;
-            } else {
-                matcher.appendReplacement(sb, Matcher.quoteReplacement("\\VAR{" + varName + "}"));
-                log.warn("No value found for variable '{}', placeholder left unchanged.", varName);
-            }
-        }
-        matcher.appendTail(sb);
+    /**
+     * @return true if the output file was written, false if the template and the variables
+     *         are unchanged since the last build
+     */
+    public boolean replaceVarsInLatexFile() throws Exception {
+        return replaceVarsInLatexFile(sheetDataSource.readLatexVariables(), latexTemplateFilename,
+                latexOutputFilename);
+    }
+
+    /**
+     * Same as {@link #replaceVarsInLatexFile()} but takes the variables from a batch fetched earlier.
+     */
+    public boolean replaceVarsInLatexFile(SheetBatch batch) throws Exception {
+        return replaceVarsInLatexFile(sheetDataSource.readLatexVariables(batch), latexTemplateFilename,
+                latexOutputFilename);
+    }
+
+    /**
+     * Same as {@link #replaceVarsInLatexFile(SheetBatch)} for another template and output file
+     * than the configured ones.
+     */
+    public boolean replaceVarsInLatexFile(SheetBatch batch, String templateFilename, String outputFilename)
+            throws Exception {
+        return replaceVarsInLatexFile(sheetDataSource.readLatexVariables(batch), templateFilename, outputFilename);
+    }
 
-        String outputContent = sb.toString();
-        Files.write(Paths.get(latexOutputFilename), outputContent.getBytes());
-        log.info("Wrote {} replacements to '{}'", replacements, latexOutputFilename);
+    /**
+     * Renders the configured template with the given variables into the writer, without
+     * writing the output file. The template is parsed once and kept until the file changes.
+     */
+    public TemplateRenderResult renderTemplate(Map<String, String> variables, Writer out) throws IOException {
+        return templateCache.get(Paths.get(latexTemplateFilename)).render(variables, out);
+    }
 
+    /**
+     * Same as {@link #renderTemplate(Map, Writer)}, returning the output as UTF-8 bytes.
+     */
+    public byte[] renderTemplate(Map<String, String> variables) throws IOException {
+        return templateCache.get(Paths.get(latexTemplateFilename)).renderToBytes(variables);
+    }
 
-        // After replacement, check for any unprocessed \VAR{...} placeholders
-        Pattern remainingPattern = Pattern.compile("\\\\VAR\\{([^}]+)\\}");
-        Matcher remainingMatcher = remainingPattern.matcher(outputContent);
-        Set<String> unprocessed = new HashSet<>();
-        while (remainingMatcher.find()) {
-            unprocessed.add(remainingMatcher.group(1));
+    private boolean replaceVarsInLatexFile(Map<String, String> variables, String templateFilename,
+            String outputFilename) throws Exception {
+        Path templateFile = Paths.get(templateFilename);
+        String inputHash = new BuildManifest.InputHash()
+                .add(templateFile)
+                .add(variables)
+                .toHex();
+        if (buildManifest.isUpToDate(outputFilename, inputHash)) {
+            log.info("'{}' is up to date", outputFilename);
+            return false;
         }
-        for (String var : unprocessed) {
-            log.error("Unprocessed placeholder still in output: \\VAR{{}}}", var);
+
+        VariableReplacementEvent event = new VariableReplacementEvent();
+        event.begin();
+        long start = System.nanoTime();
+        TemplateRenderResult result;
+        if (templateCacheEnabled) {
+            try (Writer writer = Files.newBufferedWriter(Paths.get(outputFilename), StandardCharsets.UTF_8)) {
+                result = templateCache.get(templateFile).render(variables, writer);
+            }
+        } else {
+            // Stream the template to the output in one pass, replacing \VAR{...} placeholders
+            try (Reader reader = Files.newBufferedReader(templateFile, StandardCharsets.UTF_8);
+                    Writer writer = Files.newBufferedWriter(Paths.get(outputFilename), StandardCharsets.UTF_8)) {
+                result = TemplateScanner.render(reader, writer, variables);
+            }
         }
-        if (unprocessed.isEmpty()) {
-            log.info("All placeholders processed.");
+        log.info("Wrote {} replacements to '{}'", result.getReplacements(), outputFilename);
+        long templateBytes = Files.size(templateFile);
+        Timer.builder("sheetslatex.template.render").description("Variable replacement into the LaTeX template")
+                .register(meterRegistry).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("sheetslatex.template.size").baseUnit("bytes")
+                .register(meterRegistry).record(templateBytes);
+        DistributionSummary.builder("sheetslatex.template.replacements")
+                .register(meterRegistry).record(result.getReplacements());
+        if (event.shouldCommit()) {
+            event.template = templateFilename;
+            event.output = outputFilename;
+            event.templateBytes = templateBytes;
+            event.replacements = result.getReplacements();
+            event.unresolved = result.getUnresolved().size();
+            event.commit();
         }
-        // Check for spreadsheet errors like #NAME?, #REF!, etc.
-        Pattern sheetErrorPattern = Pattern.compile("#(NAME\\?|REF!|VALUE!|N/A|ERROR!)");
-        Matcher errorMatcher = sheetErrorPattern.matcher(outputContent);
-        Set<String> sheetErrors = new HashSet<>();
 
-        while (errorMatcher.find()) {
-            sheetErrors.add(errorMatcher.group());
+        // Placeholders without a value were left unchanged
+        for (String var : result.getUnresolved()) {
+            log.error("Unprocessed placeholder still in output: \\VAR{{}}}", var);
         }
-
-        if (!sheetErrors.isEmpty()) {
-            log.error("Detected spreadsheet error values in the output: {}", sheetErrors);
-            throw new RuntimeException("Output contains spreadsheet errors: " + sheetErrors);
+        if (result.getUnresolved().isEmpty()) {
+            log.info("All placeholders processed.");
         }
-
+        // Spreadsheet errors like #NAME?, #REF!, etc.
+        if (!result.getSheetErrors().isEmpty()) {
+            log.error("Detected spreadsheet error values in the output: {}", result.getSheetErrors());
+            throw new RuntimeException("Output contains spreadsheet errors: " + result.getSheetErrors());
+        }
+        buildManifest.record(outputFilename, inputHash);
+        return true;
     }
 }
@@ -0,0 +1,33 @@
+package fi.panukorpela.sheetslatex.service;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One pdflatex process, from start to exit or timeout.
+ */
+@Name("fi.panukorpela.sheetslatex.Pdflatex")
+@Label("pdflatex")
+@Category({ "Sheets-LaTeX", "LaTeX" })
+@StackTrace(false)
+class PdflatexEvent extends jdk.jfr.Event {
+    @Label("TeX File")
+    String texFile;
+
+    @Label("Format")
+    @Description("Precompiled preamble format, if one was used")
+    String format;
+
+    @Label("Exit Code")
+    int exitCode;
+
+    @Label("Timed Out")
+    boolean timedOut;
+
+    @Label("Pass")
+    @Description("Number of the run within one compilation, which reruns while .aux/.toc/.lof change")
+    int pass;
+}
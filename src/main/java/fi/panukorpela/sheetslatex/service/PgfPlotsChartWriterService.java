@@ -1,129 +1,221 @@
 package fi.panukorpela.sheetslatex.service;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.Collections;
+import java.nio.file.Paths;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 
-import org.springframework.beans.factory.annotation.Autowired;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
 import fi.panukorpela.sheetslatex.service.pgfconverters.BarChartParams;
+import fi.panukorpela.sheetslatex.service.pgfconverters.DatFileWriter;
 import fi.panukorpela.sheetslatex.service.pgfconverters.MulticolourBarChartWriter;
+import fi.panukorpela.sheetslatex.service.pgfconverters.TableDownsampler;
+import fi.panukorpela.sheetslatex.service.pgfconverters.TexEmitter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 
 @Service
 public class PgfPlotsChartWriterService {
-    @Autowired
-    private GoogleSheetsService googleSheetsService;
+    // Part of every chart's input hash: bump when the writers' output changes for the same input
+    private static final String CHART_WRITER_VERSION = "4";
+    private Logger log = LoggerFactory.getLogger(PgfPlotsChartWriterService.class);
+    private final SheetDataSource sheetDataSource;
+    private final BuildManifest buildManifest;
+    private final MeterRegistry meterRegistry;
+    // Emitters of finished charts for the next ones to render into, one per chart written at the same time
+    private final Queue<TexEmitter> emitters = new ConcurrentLinkedQueue<>();
+
+    public PgfPlotsChartWriterService(SheetDataSource sheetDataSource, BuildManifest buildManifest,
+            MeterRegistry meterRegistry) {
+        this.sheetDataSource = sheetDataSource;
+        this.buildManifest = buildManifest;
+        this.meterRegistry = meterRegistry;
+    }
 
     public void writeBarChartFromSheets(BarChartParams params) {
-        String tab = params.getTab();
-        String range = params.getRange();
-        boolean errorForDataAfterRange = params.isErrorForDataAfterRange();
-        boolean swapColumns = params.isSwapColumns();
+        try {
+            // Read data from the Sheet
+            SheetTable table = sheetDataSource.getSheetTable(params.getTab(), params.getRange(),
+                    params.isErrorForDataAfterRange());
+            writeChartIfChanged("writeBarChartFromSheets", table, params);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void writeBarChart(List<String[]> table, BarChartParams params) {
+        writeBarChart(SheetTable.fromRows(table), params);
+    }
+
+    public void writeBarChart(SheetTable table, BarChartParams params) {
         String outputFile = params.getOutputFile();
+        TexEmitter out = borrowEmitter(2048 + 96 * table.rowCount());
+        try {
+            if (params.isExternalData()) {
+                try (DatFileWriter data = new DatFileWriter(DatFileWriter.dataFileFor(outputFile))) {
+                    renderBarChart(table, params, out, data);
+                    data.commit();
+                }
+            } else {
+                renderBarChart(table, params, out);
+            }
+            out.writeAtomically(Paths.get(outputFile));
+            log.info("LaTeX PGFPlots file written: {}", outputFile);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            emitters.offer(out);
+        }
+    }
+
+    private void writeMulticolorBarChart(SheetTable table, BarChartParams params) {
+        TexEmitter out = borrowEmitter(0);
+        try {
+            MulticolourBarChartWriter.writeMulticolorBarChartFromSheets(table, params, out);
+        } finally {
+            emitters.offer(out);
+        }
+    }
+
+    private TexEmitter borrowEmitter(int capacity) {
+        TexEmitter out = emitters.poll();
+        return out != null ? out.reset().ensureCapacity(capacity) : new TexEmitter(Math.max(capacity, 4096));
+    }
+
+    /**
+     * Renders the bar chart document into the emitter without writing it anywhere. With external
+     * data the document refers to the chart's .dat file, which is not written.
+     * @return the emitter, holding the rendered document
+     */
+    public TexEmitter renderBarChart(List<String[]> table, BarChartParams params, TexEmitter out) {
+        return renderBarChart(SheetTable.fromRows(table), params, out);
+    }
+
+    /**
+     * Same as {@link #renderBarChart(List, BarChartParams, TexEmitter)} for a columnar table,
+     * which is not modified.
+     */
+    public TexEmitter renderBarChart(SheetTable table, BarChartParams params, TexEmitter out) {
+        try {
+            return renderBarChart(table, params, out, null);
+        } catch (IOException e) {
+            // Only writing the data file does I/O
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Same as {@link #renderBarChart(SheetTable, BarChartParams, TexEmitter)}, streaming the rows to
+     * the data file if the chart uses external data.
+     */
+    public TexEmitter renderBarChart(SheetTable table, BarChartParams params, TexEmitter out,
+            DatFileWriter data) throws IOException {
+        boolean swapColumns = params.isSwapColumns();
         String xLabel = params.getXLabel();
         String yLabel = params.getYLabel();
         int labelRotation = params.getLabelRotation();
         boolean reverseOrder = params.isReverseOrder();
         int xLabelMaxLineLength = params.getXLabelMaxLineLength();
         double xLimits = params.getXLimits();
-        try {
-            // Read data from the Sheet
-            List<String[]> table = googleSheetsService.getTableFromSheet(tab, range, errorForDataAfterRange);
-            if (swapColumns) {
-                table.forEach(row -> {
-                    if (row.length >= 2) {
-                        String temp = row[0];
-                        row[0] = row[1];
-                        row[1] = temp;
-                    }
-                });
-            }
-            
-            // Optionally reverse the table for X axis order
-            if (reverseOrder) {
-                Collections.reverse(table);
-            }
-            int nBars = table.size();
-
-            // Arrays to hold the data
-            double[] counts = new double[nBars];
-            String[] labels = new String[nBars];
-
-            for (int i = 0; i < nBars; i++) {
-                String[] row = table.get(i);
-                // Column D: Article count, Column E: Year
-                String countString = row[0].replace(",", ".");
-                counts[i] = Double.parseDouble(countString);
-                String label = row[1].replace("_", "\\_");
-                if (xLabelMaxLineLength > 0) {
-                    label = latexAxisLabelLineBreak(label, xLabelMaxLineLength);
-                }
-                labels[i] = "{" + label + "}";
+        // Views of the table, the cells are not copied
+        if (swapColumns && table.columnCount() >= 2) {
+            table = table.swapColumns(0, 1);
+        }
+        
+        // Bound the number of bars of long ranges; count in column 0, label in column 1
+        table = TableDownsampler.downsample(table, params.getDownsampling(), params.getMaxPoints(), 0, 1);
+        
+        // Optionally reverse the table for X axis order
+        if (reverseOrder) {
+            table = table.reversed();
+        }
+        int nBars = table.rowCount();
+
+        // Column D: Article count, Column E: Year
+        double[] counts = table.numbers(0);
+        String[] labels = new String[nBars];
+
+        for (int i = 0; i < nBars; i++) {
+            String label = table.text(i, 1).replace("_", "\\_");
+            if (xLabelMaxLineLength > 0) {
+                label = latexAxisLabelLineBreak(label, xLabelMaxLineLength);
             }
-            BarChartLayout layout = getPgfpBarChartLayout(nBars);
-
-            // Write LaTeX file
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile))) {
-                writer.write("\\documentclass[tikz, border=1mm]{standalone}\n");
-                writer.write("\\usepackage[HTML]{xcolor}\n");
-                writer.write("\\usepackage{pgfplots}\n");
-                writer.write("\\pgfplotsset{compat=1.18}\n");
-                writer.write("\\definecolor{barblue}{HTML}{46a5ff}\n\n");
-                writer.write("\\begin{document}\n");
-                writer.write("\\begin{tikzpicture}\n");
-                writer.write("\\begin{axis}[\n");
-                writer.write("    width=14cm,\n");
-                writer.write("    height=7cm,\n");
-                writer.write("    ybar,\n");
-                writer.write("    xlabel=" + xLabel + ",\n");
-                writer.write("    ylabel=" + yLabel + ",\n");
-                writer.write("    ymin=0,\n");
-                writer.write("    xtick=data,\n");
-                writer.write("    xticklabels={");
-
-                // Add all years to xticklabels
-                for (int i = 0; i < labels.length; i++) {
-                    writer.write(labels[i]);
-                    if (i != labels.length - 1) writer.write(",");
-                }
-                writer.write("},\n");
-                if (xLabelMaxLineLength == 0) {
-                    writer.write("    xticklabel style={rotate=" + labelRotation + ",anchor=east},\n");
-                } else {
-                    writer.write("    xticklabel style={font=\\scriptsize, align=center, text width=3cm},\n");
-                }
-                writer.write("    bar width=" + layout.barWidthPt + "pt,\n");
-                writer.write("    grid=major,\n");
-                writer.write("    xmajorgrids=false,\n");
-                //writer.write("    nodes near coords,\n");
-                if (xLimits == 0.0) {
-                    writer.write("    enlarge x limits=" + layout.enlargeXLimits + ",\n");
-                } else {
-                    writer.write("    enlarge x limits=" + xLimits + ",\n");
-                }
-                writer.write("    reverse legend,\n");
-                writer.write("]\n");
-
-                writer.write("\\addplot+[\n");
-                writer.write("    fill=barblue,\n");
-                writer.write("]\n");
-                writer.write("coordinates {\n");
-                // Write coordinates (x is index+1, y is count)
+            labels[i] = label;
+        }
+        BarChartLayout layout = getPgfpBarChartLayout(nBars);
+
+        out.append("\\documentclass[tikz, border=1mm]{standalone}\n");
+        out.append("\\usepackage[HTML]{xcolor}\n");
+        out.append("\\usepackage{pgfplots}\n");
+        out.append("\\pgfplotsset{compat=1.18}\n");
+        out.append(LatexCompiler.PREAMBLE_END_MARKER).append('\n');
+        out.append("\\definecolor{barblue}{HTML}{46a5ff}\n\n");
+        out.append("\\begin{document}\n");
+        out.append("\\begin{tikzpicture}\n");
+        out.append("\\begin{axis}[\n");
+        out.append("    width=14cm,\n");
+        out.append("    height=7cm,\n");
+        out.append("    ybar,\n");
+        out.append("    xlabel=").append(xLabel).append(",\n");
+        out.append("    ylabel=").append(yLabel).append(",\n");
+        out.append("    ymin=0,\n");
+        out.append("    xtick=data,\n");
+        out.append("    xticklabels={");
+
+        // Add all years to xticklabels
+        for (int i = 0; i < labels.length; i++) {
+            out.append('{').append(labels[i]).append('}');
+            if (i != labels.length - 1) out.append(',');
+        }
+        out.append("},\n");
+        if (xLabelMaxLineLength == 0) {
+            out.append("    xticklabel style={rotate=").append(labelRotation).append(",anchor=east},\n");
+        } else {
+            out.append("    xticklabel style={font=\\scriptsize, align=center, text width=3cm},\n");
+        }
+        out.append("    bar width=").append(layout.barWidthPt).append("pt,\n");
+        out.append("    grid=major,\n");
+        out.append("    xmajorgrids=false,\n");
+        //out.append("    nodes near coords,\n");
+        if (xLimits == 0.0) {
+            out.append("    enlarge x limits=").append(layout.enlargeXLimits).append(",\n");
+        } else {
+            out.append("    enlarge x limits=").append(xLimits).append(",\n");
+        }
+        out.append("    reverse legend,\n");
+        out.append("]\n");
+
+        out.append("\\addplot+[\n");
+        out.append("    fill=barblue,\n");
+        out.append("]\n");
+        if (params.isExternalData()) {
+            // x is index+1, y is count, as with inline coordinates
+            out.append("table[col sep=tab, x=x, y=y] {")
+                    .append(DatFileWriter.dataFileFor(params.getOutputFile()).getFileName().toString()).append("};\n");
+            if (data != null) {
+                data.cell("x").cell("y").endRow();
                 for (int i = 0; i < counts.length; i++) {
-                    writer.write("    (" + (i + 1) + "," + counts[i] + ")  % " + labels[i] + "\n");
+                    data.cell(i + 1).cell(counts[i]).endRow();
                 }
-                writer.write("};\n");
-                writer.write("\\end{axis}\n");
-                writer.write("\\end{tikzpicture}\n");
-                writer.write("\\end{document}\n");
-                System.out.println("LaTeX PGFPlots file written: " + outputFile);
             }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        } else {
+            out.append("coordinates {\n");
+            // Write coordinates (x is index+1, y is count)
+            for (int i = 0; i < counts.length; i++) {
+                out.append("    (").append(i + 1).append(',').append(counts[i]).append(")  % {").append(labels[i]).append("}\n");
+            }
+            out.append("};\n");
         }
+        out.append("\\end{axis}\n");
+        out.append("\\end{tikzpicture}\n");
+        out.append("\\end{document}\n");
+        return out;
     }
     
     public void writeColouredBarChartFromSheets(BarChartParams params) {
@@ -131,13 +223,79 @@ public class PgfPlotsChartWriterService {
         String range = params.getRange();
         boolean errorForDataAfterRange = params.isErrorForDataAfterRange();
         try {
-            // Read data from the Sheet
-            List<String[]> table = googleSheetsService.getTableFromSheet(tab, range, errorForDataAfterRange);
-            MulticolourBarChartWriter.writeMulticolorBarChartFromSheets(table, params);
+            // Read data from the Sheet, as displayed: the axis is fixed at 0-100 and values may be printed on the bars
+            SheetTable table = SheetTable.fromRows(sheetDataSource.getTableFromSheet(tab, range, errorForDataAfterRange));
+            writeChartIfChanged("writeColouredBarChartFromSheets", table, params);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Writes all the given charts using the values of a batch fetched earlier with
+     * {@link SheetDataSource#fetchBuildRanges(List)}, so no further requests are made.
+     */
+    public void writeChartsFromBatch(List<BarChartConfig> charts, SheetBatch batch) {
+        for (BarChartConfig chart : charts) {
+            writeChartFromBatch(chart, batch);
+        }
+    }
+
+    /**
+     * @return true if the chart file was written, false if its inputs are unchanged since the last build
+     */
+    public boolean writeChartFromBatch(BarChartConfig chart, SheetBatch batch) {
+        BarChartParams params = chart.toBarChartParams();
+        SheetTable table = sheetDataSource.getSheetTable(batch, params.getTab(), params.getRange(),
+                params.isErrorForDataAfterRange());
+        return writeChartIfChanged(chart.getMethodName(), table, params);
+    }
+
+    private boolean writeChartIfChanged(String methodName, SheetTable table, BarChartParams params) {
+        String inputHash = new BuildManifest.InputHash()
+                .add(CHART_WRITER_VERSION)
+                .add(methodName)
+                .add(params.toString())
+                .add(table)
+                .toHex();
+        List<String> outputFiles = outputFiles(methodName, params);
+        if (buildManifest.isUpToDate(outputFiles, inputHash)) {
+            log.info("Chart '{}' is up to date", params.getOutputFile());
+            return false;
+        }
+        int rows = table.rowCount();
+        ChartRenderEvent event = new ChartRenderEvent();
+        event.begin();
+        long start = System.nanoTime();
+        switch (methodName) {
+            case "writeBarChartFromSheets" -> writeBarChart(table, params);
+            case "writeColouredBarChartFromSheets" -> writeMulticolorBarChart(table, params);
+            default -> throw new IllegalArgumentException("Unknown chart method '" + methodName + "'");
+        }
+        Timer.builder("sheetslatex.chart.render").description("Rendering and writing a chart")
+                .tag("method", methodName)
+                .register(meterRegistry).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("sheetslatex.chart.rows").tag("method", methodName)
+                .register(meterRegistry).record(rows);
+        if (event.shouldCommit()) {
+            event.method = methodName;
+            event.outputFile = params.getOutputFile();
+            event.rows = rows;
+            event.commit();
+        }
+        buildManifest.record(outputFiles, inputHash);
+        return true;
+    }
+
+    /**
+     * The files a chart method writes: the chart, and its data file if a bar chart uses external data.
+     */
+    private static List<String> outputFiles(String methodName, BarChartParams params) {
+        if (params.isExternalData() && methodName.equals("writeBarChartFromSheets")) {
+            return List.of(params.getOutputFile(), DatFileWriter.dataFileFor(params.getOutputFile()).toString());
+        }
+        return List.of(params.getOutputFile());
+    }
     
     public static class BarChartLayout {
         public final double barWidthPt;
@@ -152,6 +310,11 @@ public class PgfPlotsChartWriterService {
     public static BarChartLayout getPgfpBarChartLayout(int nBars) {
         // Clamp nBars between 5 and 17 for our formula
         int minBars = 5, maxBars = 17;
+        if (nBars > maxBars) {
+            // Beyond that, narrow the bars so that they still fit the axis
+            double barWidth = Math.round(10.0 * maxBars / nBars * 10.0) / 10.0;
+            return new BarChartLayout(Math.max(0.1, barWidth), 0.05);
+        }
         nBars = Math.max(minBars, Math.min(maxBars, nBars));
 
         // Linear interpolation
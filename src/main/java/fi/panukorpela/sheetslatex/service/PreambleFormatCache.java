@@ -0,0 +1,143 @@
+package fi.panukorpela.sheetslatex.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Precompiled pdflatex formats (.fmt) of chart preambles, made with the mylatexformat package.
+ * A chart file's preamble is everything before {@link LatexCompiler#PREAMBLE_END_MARKER}; each
+ * distinct preamble is dumped once into a format named after its hash, so a changed preamble
+ * simply gets a new format.
+ */
+class PreambleFormatCache {
+    private static Logger log = LoggerFactory.getLogger(PreambleFormatCache.class);
+    private final Path formatDir;
+    private final String pdflatexPath;
+    private final long timeoutSeconds;
+    // Format name -> whether it could be built; concurrent charts wait for the first one's build
+    private final Map<String, CompletableFuture<Boolean>> formats = new ConcurrentHashMap<>();
+
+    PreambleFormatCache(Path formatDir, String pdflatexPath, long timeoutSeconds) {
+        this.formatDir = formatDir.toAbsolutePath();
+        this.pdflatexPath = pdflatexPath;
+        this.timeoutSeconds = timeoutSeconds;
+    }
+
+    Path getFormatDir() {
+        return formatDir;
+    }
+
+    /**
+     * @return the name of the format to compile the file with, or null if it has no marked
+     *         preamble or the format could not be built
+     */
+    String formatFor(Path texFile) throws IOException {
+        String content = Files.readString(texFile, StandardCharsets.UTF_8);
+        int markerIndex = content.indexOf(LatexCompiler.PREAMBLE_END_MARKER);
+        if (markerIndex < 0) {
+            return null;
+        }
+        String preamble = content.substring(0, markerIndex);
+        String formatName = "preamble-" + new BuildManifest.InputHash()
+                .add(pdflatexPath)
+                .add(preamble)
+                .toHex().substring(0, 16);
+        CompletableFuture<Boolean> build = new CompletableFuture<>();
+        CompletableFuture<Boolean> existing = formats.putIfAbsent(formatName, build);
+        if (existing == null) {
+            // Built outside the map, which would otherwise be locked for as long as pdflatex runs
+            try {
+                build.complete(buildFormat(formatName, preamble));
+            } catch (RuntimeException e) {
+                build.completeExceptionally(e);
+            }
+            if (Thread.currentThread().isInterrupted() || build.isCompletedExceptionally()) {
+                // Not a verdict on the format, the next chart tries again
+                formats.remove(formatName, build);
+            }
+            existing = build;
+        }
+        try {
+            return existing.get() ? formatName : null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Stops using a format that failed to compile with, also after a restart.
+     */
+    void forget(String formatName) {
+        formats.put(formatName, CompletableFuture.completedFuture(false));
+        deleteFormat(formatName);
+    }
+
+    private void deleteFormat(String formatName) {
+        try {
+            Files.deleteIfExists(formatDir.resolve(formatName + ".fmt"));
+        } catch (IOException e) {
+            log.warn("Could not delete format '{}'", formatName, e);
+        }
+    }
+
+    private boolean buildFormat(String formatName, String preamble) {
+        Path fmtFile = formatDir.resolve(formatName + ".fmt");
+        if (Files.exists(fmtFile)) {
+            return true;
+        }
+        long start = System.nanoTime();
+        Process process = null;
+        try {
+            Files.createDirectories(formatDir);
+            Path preambleFile = formatDir.resolve(formatName + ".tex");
+            Files.writeString(preambleFile, preamble + LatexCompiler.PREAMBLE_END_MARKER
+                    + "\n\\begin{document}\n\\end{document}\n", StandardCharsets.UTF_8);
+            ProcessBuilder pb = new ProcessBuilder(List.of(pdflatexPath, "-ini", "-interaction=nonstopmode",
+                    "-jobname=" + formatName, "&pdflatex", "mylatexformat.ltx", preambleFile.getFileName().toString()));
+            pb.directory(formatDir.toFile());
+            pb.redirectErrorStream(true);
+            pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+            process = pb.start();
+            process.getOutputStream().close();
+            if (!process.waitFor(timeoutSeconds, TimeUnit.SECONDS)) {
+                LatexCompiler.destroyProcessTree(process);
+                process.waitFor();
+                // A partly written .fmt would be taken as built after a restart
+                deleteFormat(formatName);
+                log.warn("Dumping format '{}' timed out, compiling charts without it", formatName);
+                return false;
+            }
+            if (process.exitValue() != 0 || !Files.exists(fmtFile)) {
+                deleteFormat(formatName);
+                log.warn("Dumping format '{}' failed with exit code {} (is mylatexformat installed?), see {}",
+                        formatName, process.exitValue(), formatDir.resolve(formatName + ".log"));
+                return false;
+            }
+            log.info("Dumped chart preamble format '{}' in {} ms", formatName,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return true;
+        } catch (IOException e) {
+            log.warn("Could not dump format '{}'", formatName, e);
+            return false;
+        } catch (InterruptedException e) {
+            LatexCompiler.destroyProcessTree(process);
+            deleteFormat(formatName);
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
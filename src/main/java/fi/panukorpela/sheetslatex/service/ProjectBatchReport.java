@@ -0,0 +1,60 @@
+package fi.panukorpela.sheetslatex.service;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of a batch run: per-document durations, chart reports and failures.
+ */
+public class ProjectBatchReport {
+    private final List<ProjectResult> results;
+    private final long wallClockNanos;
+
+    public ProjectBatchReport(List<ProjectResult> results, long wallClockNanos) {
+        this.results = List.copyOf(results);
+        this.wallClockNanos = wallClockNanos;
+    }
+
+    public List<ProjectResult> getResults() { return results; }
+    public long getWallClockNanos() { return wallClockNanos; }
+
+    public List<ProjectResult> getFailures() {
+        return results.stream().filter(result -> !result.isSuccess()).toList();
+    }
+
+    public boolean isSuccess() {
+        return results.stream().allMatch(ProjectResult::isSuccess);
+    }
+
+    @Override
+    public String toString() {
+        return results.size() + " documents (" + getFailures().size() + " failed) in "
+                + TimeUnit.NANOSECONDS.toMillis(wallClockNanos) + " ms wall clock";
+    }
+
+    public static class ProjectResult {
+        private final ProjectConfig project;
+        private final long durationNanos;
+        private final boolean documentWritten;
+        private final ChartBuildReport chartReport;
+        private final Exception error;
+
+        public ProjectResult(ProjectConfig project, long durationNanos, boolean documentWritten,
+                ChartBuildReport chartReport, Exception error) {
+            this.project = project;
+            this.durationNanos = durationNanos;
+            this.documentWritten = documentWritten;
+            this.chartReport = chartReport;
+            this.error = error;
+        }
+
+        public ProjectConfig getProject() { return project; }
+        public long getDurationNanos() { return durationNanos; }
+        // False when the document was up to date and left untouched
+        public boolean isDocumentWritten() { return documentWritten; }
+        // Null if the project failed before its charts were built
+        public ChartBuildReport getChartReport() { return chartReport; }
+        public Exception getError() { return error; }
+        public boolean isSuccess() { return error == null && (chartReport == null || chartReport.isSuccess()); }
+    }
+}
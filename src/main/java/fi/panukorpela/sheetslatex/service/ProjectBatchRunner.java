@@ -0,0 +1,139 @@
+package fi.panukorpela.sheetslatex.service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Builds several documents, each from its own spreadsheet, template and chart YAML, in one run.
+ * The documents share the sheet source (so one HTTP transport and one set of credentials), the
+ * build manifest and the pdflatex pool. At most batch.concurrency documents are built at the
+ * same time, and each document builds at most its own concurrency of charts at the same time.
+ * <p>
+ * The batch of batch.projects-file is built by the command-line entry point, see
+ * {@link CliBuildRunner}, which exits with the outcome of the {@link ProjectBatchReport}.
+ */
+@Service
+public class ProjectBatchRunner {
+    private Logger log = LoggerFactory.getLogger(ProjectBatchRunner.class);
+    private final SheetDataSource sheetDataSource;
+    private final LatexVariableReplacerService latexVariableReplacerService;
+    private final ChartBuildRunner chartBuildRunner;
+    private final LatexCompiler latexCompiler;
+    private final int concurrency;
+
+    public ProjectBatchRunner(SheetDataSource sheetDataSource, LatexVariableReplacerService latexVariableReplacerService,
+            ChartBuildRunner chartBuildRunner, LatexCompiler latexCompiler,
+            @Value("${batch.concurrency:4}") int concurrency) {
+        this.sheetDataSource = sheetDataSource;
+        this.latexVariableReplacerService = latexVariableReplacerService;
+        this.chartBuildRunner = chartBuildRunner;
+        this.latexCompiler = latexCompiler;
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    public ProjectBatchReport run(Path batchYamlFile) throws IOException {
+        return run(BatchConfiguration.load(batchYamlFile).getProjects());
+    }
+
+    public ProjectBatchReport run(List<ProjectConfig> projects) {
+        long start = System.nanoTime();
+        Semaphore permits = new Semaphore(concurrency);
+        List<Future<ProjectBatchReport.ProjectResult>> futures = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (ProjectConfig project : projects) {
+                futures.add(executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        return buildProject(project);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+        }
+        List<ProjectBatchReport.ProjectResult> results = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                results.add(new ProjectBatchReport.ProjectResult(projects.get(i), 0, false, null, e));
+            } catch (ExecutionException e) {
+                results.add(new ProjectBatchReport.ProjectResult(projects.get(i), 0, false, null, e));
+            }
+        }
+        ProjectBatchReport report = new ProjectBatchReport(results, System.nanoTime() - start);
+        for (ProjectBatchReport.ProjectResult failure : report.getFailures()) {
+            log.error("Document '{}' failed", failure.getProject().getName(), failure.getError());
+        }
+        log.info("Batch build: {}", report);
+        return report;
+    }
+
+    private ProjectBatchReport.ProjectResult buildProject(ProjectConfig project) {
+        long start = System.nanoTime();
+        boolean documentWritten = false;
+        ChartBuildReport chartReport = null;
+        try {
+            List<BarChartConfig> charts = project.getChartsFile() != null && !project.getChartsFile().isEmpty()
+                    ? ChartConfiguration.load(Paths.get(project.getChartsFile())).getCharts()
+                    : Collections.emptyList();
+            SheetBatch batch = sheetDataSource.fetchBuildRanges(project.getSpreadsheetId(), charts);
+            if (!batch.getStoredRanges().isEmpty()) {
+                log.warn("Document '{}' is built from stored values of {}, fetching them failed", project.getName(),
+                        batch.getStoredRanges().keySet());
+            }
+            documentWritten = latexVariableReplacerService.replaceVarsInLatexFile(batch,
+                    project.getLatexTemplateFilename(), project.getLatexOutputFilename());
+            chartReport = project.getConcurrency() > 0
+                    ? chartBuildRunner.run(charts, batch, project.getConcurrency())
+                    : chartBuildRunner.run(charts, batch);
+            if (project.isCompile()) {
+                compile(project, chartReport);
+            }
+            log.info("Document '{}' built in {} ms", project.getName(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return new ProjectBatchReport.ProjectResult(project, System.nanoTime() - start, documentWritten,
+                    chartReport, null);
+        } catch (Exception e) {
+            return new ProjectBatchReport.ProjectResult(project, System.nanoTime() - start, documentWritten,
+                    chartReport, e);
+        }
+    }
+
+    /**
+     * Compiles all the charts and the document, not only what was written: the compiler skips the
+     * files unchanged since they last compiled, and retries those that failed.
+     */
+    private void compile(ProjectConfig project, ChartBuildReport chartReport) {
+        List<String> failed = new ArrayList<>();
+        for (LatexCompiler.CompileResult result : latexCompiler.compileAll(chartReport.getOutputFiles())) {
+            if (!result.isSuccess()) {
+                failed.add(result.getTexFile().toString());
+            }
+        }
+        // The document last, it includes the charts
+        LatexCompiler.CompileResult document = latexCompiler.compile(project.getLatexOutputFilename(), null);
+        if (!document.isSuccess()) {
+            failed.add(document.getTexFile().toString());
+        }
+        if (!failed.isEmpty()) {
+            throw new IllegalStateException("pdflatex failed for " + failed);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package fi.panukorpela.sheetslatex.service;
+
+//This class maps to a single document entry in a batch YAML
+public class ProjectConfig {
+ private String name;
+ private String spreadsheetId;
+ private String latexTemplateFilename;
+ private String latexOutputFilename;
+ private String chartsFile;
+ // Charts of this project built at the same time, 0 uses charts.concurrency
+ private int concurrency;
+ private boolean compile;
+
+ public String getName() {
+     return name != null ? name : latexOutputFilename;
+ }
+
+ public void setName(String name) {
+     this.name = name;
+ }
+
+ public String getSpreadsheetId() {
+     return spreadsheetId;
+ }
+
+ public void setSpreadsheetId(String spreadsheetId) {
+     this.spreadsheetId = spreadsheetId;
+ }
+
+ public String getLatexTemplateFilename() {
+     return latexTemplateFilename;
+ }
+
+ public void setLatexTemplateFilename(String latexTemplateFilename) {
+     this.latexTemplateFilename = latexTemplateFilename;
+ }
+
+ public String getLatexOutputFilename() {
+     return latexOutputFilename;
+ }
+
+ public void setLatexOutputFilename(String latexOutputFilename) {
+     this.latexOutputFilename = latexOutputFilename;
+ }
+
+ public String getChartsFile() {
+     return chartsFile;
+ }
+
+ public void setChartsFile(String chartsFile) {
+     this.chartsFile = chartsFile;
+ }
+
+ public int getConcurrency() {
+     return concurrency;
+ }
+
+ public void setConcurrency(int concurrency) {
+     this.concurrency = concurrency;
+ }
+
+ public boolean isCompile() {
+     return compile;
+ }
+
+ public void setCompile(boolean compile) {
+     this.compile = compile;
+ }
+
+ @Override
+ public String toString() {
+     return "ProjectConfig{" +
+            "name='" + name + '\'' +
+            ", spreadsheetId='" + spreadsheetId + '\'' +
+            ", latexTemplateFilename='" + latexTemplateFilename + '\'' +
+            ", latexOutputFilename='" + latexOutputFilename + '\'' +
+            ", chartsFile='" + chartsFile + '\'' +
+            ", concurrency=" + concurrency +
+            ", compile=" + compile +
+            '}';
+ }
+}
@@ -0,0 +1,70 @@
+package fi.panukorpela.sheetslatex.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The files a pdflatex run read, from the .fls file it writes with -recorder, and a hash over
+ * them to tell whether compiling again would give the same result.
+ */
+class RecorderInputs {
+    private final Set<Path> inputs;
+
+    private RecorderInputs(Set<Path> inputs) {
+        this.inputs = inputs;
+    }
+
+    /**
+     * Reads the files recorded as read, leaving out those the run also wrote (.aux, .toc, ...).
+     * Relative paths are relative to the PWD line, which comes first.
+     */
+    static RecorderInputs read(Path flsFile) throws IOException {
+        List<String> lines = Files.readAllLines(flsFile, StandardCharsets.UTF_8);
+        Path pwd = flsFile.toAbsolutePath().getParent();
+        Set<Path> read = new TreeSet<>();
+        Set<Path> written = new HashSet<>();
+        for (String line : lines) {
+            if (line.startsWith("PWD ")) {
+                pwd = Path.of(line.substring(4));
+            } else if (line.startsWith("INPUT ")) {
+                read.add(pwd.resolve(line.substring(6)).normalize());
+            } else if (line.startsWith("OUTPUT ")) {
+                written.add(pwd.resolve(line.substring(7)).normalize());
+            }
+        }
+        read.removeAll(written);
+        return new RecorderInputs(read);
+    }
+
+    Set<Path> getInputs() {
+        return inputs;
+    }
+
+    /**
+     * Adds the inputs to the hash: the content of files under the given directory (the document
+     * and what it includes), and only path, size and modification time of the others, which are
+     * the packages and fonts of the TeX distribution.
+     * @throws IOException if an input no longer exists
+     */
+    BuildManifest.InputHash addTo(BuildManifest.InputHash hash, Path localDir) throws IOException {
+        Path dir = localDir.toAbsolutePath().normalize();
+        hash.add(String.valueOf(inputs.size()));
+        for (Path input : inputs) {
+            hash.add(input.toString());
+            if (input.startsWith(dir)) {
+                hash.add(input);
+            } else {
+                BasicFileAttributes attributes = Files.readAttributes(input, BasicFileAttributes.class);
+                hash.add(attributes.size() + "/" + attributes.lastModifiedTime().toMillis());
+            }
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,69 @@
+package fi.panukorpela.sheetslatex.service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * State of a document build queued through {@link RenderJobService}. Updated by the job thread
+ * and read by the web tier, so every access is synchronized.
+ */
+public class RenderJob {
+    public enum Status { QUEUED, RUNNING, SUCCEEDED, FAILED }
+
+    private final String id;
+    private final RenderRequest request;
+    private final Instant submittedAt = Instant.now();
+    private Status status = Status.QUEUED;
+    private Instant startedAt;
+    private Instant finishedAt;
+    private final Map<String, Long> stageMillis = new LinkedHashMap<>();
+    private final List<String> artifacts = new ArrayList<>();
+    private String error;
+
+    public RenderJob(String id, RenderRequest request) {
+        this.id = id;
+        this.request = request;
+    }
+
+    public String getId() { return id; }
+    public RenderRequest getRequest() { return request; }
+    public Instant getSubmittedAt() { return submittedAt; }
+    public synchronized Status getStatus() { return status; }
+    public synchronized Instant getStartedAt() { return startedAt; }
+    public synchronized Instant getFinishedAt() { return finishedAt; }
+    // Stage name (fetch, variables, charts, compile) -> duration, in the order the stages ran
+    public synchronized Map<String, Long> getStageMillis() { return new LinkedHashMap<>(stageMillis); }
+    public synchronized List<String> getArtifacts() { return new ArrayList<>(artifacts); }
+    public synchronized String getError() { return error; }
+
+    public synchronized boolean isFinished() {
+        return status == Status.SUCCEEDED || status == Status.FAILED;
+    }
+
+    synchronized void started() {
+        status = Status.RUNNING;
+        startedAt = Instant.now();
+    }
+
+    synchronized void stageDone(String stage, long durationMillis) {
+        stageMillis.put(stage, durationMillis);
+    }
+
+    synchronized void addArtifact(String file) {
+        artifacts.add(file);
+    }
+
+    synchronized void succeeded() {
+        status = Status.SUCCEEDED;
+        finishedAt = Instant.now();
+    }
+
+    synchronized void failed(String error) {
+        status = Status.FAILED;
+        this.error = error;
+        finishedAt = Instant.now();
+    }
+}
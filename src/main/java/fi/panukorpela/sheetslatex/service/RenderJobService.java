@@ -0,0 +1,191 @@
+package fi.panukorpela.sheetslatex.service;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Runs document builds in the background so that HTTP requests only queue them. Builds run on
+ * render.jobs.threads worker threads with at most render.jobs.queue-capacity builds waiting;
+ * submitting beyond that is rejected. The last render.jobs.max-retained jobs are kept for
+ * status queries. Chart files named in requests are looked up in render.charts-dir only.
+ */
+@Service
+public class RenderJobService {
+    private Logger log = LoggerFactory.getLogger(RenderJobService.class);
+    private final SheetDataSource sheetDataSource;
+    private final LatexVariableReplacerService latexVariableReplacerService;
+    private final ChartBuildRunner chartBuildRunner;
+    private final LatexCompiler latexCompiler;
+    private final ThreadPoolExecutor executor;
+    private final int maxRetained;
+    // Requests name chart YAML files in here, which is all they can read
+    private final Path chartsDir;
+    // Insertion order, so the oldest jobs are dropped first
+    private final Map<String, RenderJob> jobs = new LinkedHashMap<>();
+
+    public RenderJobService(SheetDataSource sheetDataSource, LatexVariableReplacerService latexVariableReplacerService,
+            ChartBuildRunner chartBuildRunner, LatexCompiler latexCompiler,
+            @Value("${render.jobs.threads:1}") int threads,
+            @Value("${render.jobs.queue-capacity:16}") int queueCapacity,
+            @Value("${render.jobs.max-retained:100}") int maxRetained,
+            @Value("${render.charts-dir:.}") String chartsDir) {
+        this.sheetDataSource = sheetDataSource;
+        this.latexVariableReplacerService = latexVariableReplacerService;
+        this.chartBuildRunner = chartBuildRunner;
+        this.latexCompiler = latexCompiler;
+        this.maxRetained = Math.max(1, maxRetained);
+        this.chartsDir = Paths.get(chartsDir).toAbsolutePath().normalize();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads), 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), runnable -> {
+                    Thread thread = new Thread(runnable, "render-job-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Queues a build and returns at once.
+     * @throws IllegalArgumentException if the request names a chart file outside render.charts-dir
+     * @throws RejectedExecutionException if the queue is full
+     */
+    public RenderJob submit(RenderRequest request) {
+        chartsFile(request);
+        RenderJob job = new RenderJob(UUID.randomUUID().toString(), request);
+        executor.execute(() -> run(job));
+        synchronized (jobs) {
+            jobs.put(job.getId(), job);
+            dropOldFinishedJobs();
+        }
+        log.info("Queued render job {}: {}", job.getId(), request);
+        return job;
+    }
+
+    /**
+     * @return the job, or null if it is unknown or no longer retained
+     */
+    public RenderJob getJob(String id) {
+        synchronized (jobs) {
+            return jobs.get(id);
+        }
+    }
+
+    public List<RenderJob> getJobs() {
+        synchronized (jobs) {
+            return new ArrayList<>(jobs.values());
+        }
+    }
+
+    private void dropOldFinishedJobs() {
+        Iterator<RenderJob> iterator = jobs.values().iterator();
+        while (jobs.size() > maxRetained && iterator.hasNext()) {
+            if (iterator.next().isFinished()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the chart YAML file of the request, or null if it has none
+     * @throws IllegalArgumentException if the file is outside render.charts-dir
+     */
+    private Path chartsFile(RenderRequest request) {
+        String name = request.getChartsFile();
+        if (name == null || name.isEmpty()) {
+            return null;
+        }
+        Path file = chartsDir.resolve(name).normalize();
+        if (!file.startsWith(chartsDir)) {
+            throw new IllegalArgumentException("Chart file '" + name + "' is not in the charts directory");
+        }
+        return file;
+    }
+
+    private void run(RenderJob job) {
+        job.started();
+        RenderRequest request = job.getRequest();
+        try {
+            long start = System.nanoTime();
+            Path chartsFile = chartsFile(request);
+            List<BarChartConfig> charts = chartsFile != null
+                    ? ChartConfiguration.load(chartsFile).getCharts()
+                    : Collections.emptyList();
+            SheetBatch batch = sheetDataSource.fetchBuildRanges(charts);
+            start = stageDone(job, "fetch", start);
+
+            latexVariableReplacerService.replaceVarsInLatexFile(batch);
+            job.addArtifact(latexVariableReplacerService.getLatexOutputFilename());
+            start = stageDone(job, "variables", start);
+
+            ChartBuildReport chartReport = chartBuildRunner.run(charts, batch);
+            List<String> chartFiles = new ArrayList<>();
+            for (ChartBuildReport.ChartResult result : chartReport.getResults()) {
+                if (result.isSuccess()) {
+                    chartFiles.add(result.getChart().getOutputFile());
+                    job.addArtifact(result.getChart().getOutputFile());
+                }
+            }
+            start = stageDone(job, "charts", start);
+            if (!chartReport.isSuccess()) {
+                job.failed(chartReport.getFailures().size() + " of " + charts.size() + " charts failed: "
+                        + chartReport.getFailures().get(0).getError());
+                return;
+            }
+
+            if (request.isCompile()) {
+                List<String> texFiles = new ArrayList<>(chartFiles);
+                List<String> failed = new ArrayList<>();
+                List<LatexCompiler.CompileResult> results = new ArrayList<>(latexCompiler.compileAll(texFiles));
+                // The document last, it includes the charts
+                results.add(latexCompiler.compile(latexVariableReplacerService.getLatexOutputFilename(), null));
+                for (LatexCompiler.CompileResult result : results) {
+                    if (result.isSuccess()) {
+                        job.addArtifact(result.getPdfFile().toString());
+                    } else {
+                        failed.add(result.getTexFile().toString());
+                    }
+                }
+                stageDone(job, "compile", start);
+                if (!failed.isEmpty()) {
+                    job.failed("pdflatex failed for " + failed);
+                    return;
+                }
+            }
+            job.succeeded();
+            log.info("Render job {} done in {}", job.getId(), job.getStageMillis());
+        } catch (Exception e) {
+            log.error("Render job {} failed", job.getId(), e);
+            job.failed(e.toString());
+        }
+    }
+
+    private static long stageDone(RenderJob job, String stage, long start) {
+        long now = System.nanoTime();
+        job.stageDone(stage, TimeUnit.NANOSECONDS.toMillis(now - start));
+        return now;
+    }
+}
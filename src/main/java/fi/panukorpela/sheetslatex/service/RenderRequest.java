@@ -0,0 +1,34 @@
+package fi.panukorpela.sheetslatex.service;
+
+/**
+ * What a queued build of the configured document does besides replacing its variables.
+ */
+public class RenderRequest {
+    // Chart YAML to build, none if empty
+    private String chartsFile;
+    private boolean compile;
+
+    public String getChartsFile() {
+        return chartsFile;
+    }
+
+    public void setChartsFile(String chartsFile) {
+        this.chartsFile = chartsFile;
+    }
+
+    public boolean isCompile() {
+        return compile;
+    }
+
+    public void setCompile(boolean compile) {
+        this.compile = compile;
+    }
+
+    @Override
+    public String toString() {
+        return "RenderRequest{" +
+               "chartsFile='" + chartsFile + '\'' +
+               ", compile=" + compile +
+               '}';
+    }
+}
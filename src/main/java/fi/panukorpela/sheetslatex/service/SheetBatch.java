@@ -0,0 +1,70 @@
+package fi.panukorpela.sheetslatex.service;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Values of several ranges fetched from the spreadsheet in a single round trip.
+ * Ranges are keyed by the exact A1 string they were requested with.
+ */
+public class SheetBatch {
+    private final Map<String, List<List<Object>>> valuesByRange = new LinkedHashMap<>();
+    // Ranges whose fetch failed and whose values are the last ones stored, with when they were fetched
+    private final Map<String, Long> storedFetchTimes = new LinkedHashMap<>();
+
+    /**
+     * Adds the values of a range, for sources that do not fetch them from the Sheets API.
+     * @param values raw cell values, null for an empty range
+     */
+    public void put(String range, List<List<Object>> values) {
+        valuesByRange.put(range, values != null ? values : Collections.emptyList());
+    }
+
+    /**
+     * Adds the last stored values of a range that could not be fetched.
+     * @param fetchedAtMillis when the stored values were fetched
+     */
+    public void putStored(String range, List<List<Object>> values, long fetchedAtMillis) {
+        put(range, values);
+        storedFetchTimes.put(range, fetchedAtMillis);
+    }
+
+    public boolean contains(String range) {
+        return valuesByRange.containsKey(range);
+    }
+
+    /**
+     * @param range A1 range exactly as it was requested, e.g. "Visualisations!C42:D55"
+     * @return raw cell values of the range, never null
+     */
+    public List<List<Object>> getValues(String range) {
+        List<List<Object>> values = valuesByRange.get(range);
+        if (values == null) {
+            throw new IllegalArgumentException("Range '" + range + "' was not fetched in this batch");
+        }
+        return values;
+    }
+
+    public Set<String> getRanges() {
+        return Collections.unmodifiableSet(valuesByRange.keySet());
+    }
+
+    /**
+     * @return the ranges that could not be fetched and hold stored values instead, with the time
+     *         in milliseconds those were fetched
+     */
+    public Map<String, Long> getStoredRanges() {
+        return Collections.unmodifiableMap(storedFetchTimes);
+    }
+
+    @Override
+    public String toString() {
+        return "SheetBatch{" +
+               "ranges=" + valuesByRange.keySet() +
+               (storedFetchTimes.isEmpty() ? "" : ", stored=" + storedFetchTimes.keySet()) +
+               '}';
+    }
+}
@@ -0,0 +1,131 @@
+package fi.panukorpela.sheetslatex.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Source of spreadsheet values for the document build. Implemented by {@link GoogleSheetsService}
+ * for the live spreadsheet and by {@link SnapshotSheetDataSource} for local files.
+ */
+public interface SheetDataSource {
+    String LATEX_VARIABLES_RANGE = "LaTeX!B2:C";   // Start at B2:C2, continues down
+
+    /**
+     * Reads LaTeX variable-value pairs from the sheet, stopping at the first empty variable name.
+     * @return Map of variable name (from col C) -> value (from col B)
+     */
+    Map<String, String> readLatexVariables() throws Exception;
+
+    /**
+     * Returns a table of values from the given tab and range.
+     * @param tabName e.g. "ArticleCounts"
+     * @param rangeString e.g. "A2:B18"
+     * @return List of String arrays (one per row)
+     * @throws IOException if reading the values fails
+     */
+    List<String[]> getTableFromSheet(String tabName, String rangeString, boolean errorForDataAfterRange) throws IOException;
+
+    /**
+     * Same as {@link #getTableFromSheet(String, String, boolean)} as a columnar table, for the data
+     * of a bar chart: numbers may be read unformatted.
+     */
+    default SheetTable getSheetTable(String tabName, String rangeString, boolean errorForDataAfterRange) throws IOException {
+        return SheetTable.fromRows(getTableFromSheet(tabName, rangeString, errorForDataAfterRange));
+    }
+
+    /**
+     * Fetches a value (or row).
+     * @param range E.g. "Sheet1!B2"
+     * @return List of values in the first row of the range
+     */
+    List<Object> readRange(String range) throws Exception;
+
+    /**
+     * Fetches all the given ranges at once.
+     * @param ranges A1 ranges, e.g. "LaTeX!B2:C" or "Visualisations!C42:D55"
+     * @return the fetched values keyed by the requested range strings
+     */
+    SheetBatch batchGet(Collection<String> ranges) throws IOException;
+
+    /**
+     * Same as {@link #batchGet(Collection)} but reads another spreadsheet than the configured one,
+     * for building several documents in one run.
+     */
+    SheetBatch batchGet(String spreadsheetId, Collection<String> ranges) throws IOException;
+
+    /**
+     * Fetches everything a document build needs at once: the LaTeX variable block
+     * and the range (plus overflow row) of every configured chart.
+     */
+    default SheetBatch fetchBuildRanges(List<BarChartConfig> charts) throws IOException {
+        return batchGet(buildRanges(charts));
+    }
+
+    /**
+     * Same as {@link #fetchBuildRanges(List)}, but if fresh, reads the current values instead of
+     * any kept in memory, e.g. for polling the sheet for changes. What is kept in memory for
+     * other readers stays, and is refreshed with the values read.
+     */
+    default SheetBatch fetchBuildRanges(List<BarChartConfig> charts, boolean fresh) throws IOException {
+        return fetchBuildRanges(charts);
+    }
+
+    /**
+     * Same as {@link #fetchBuildRanges(List)} for the given spreadsheet.
+     */
+    default SheetBatch fetchBuildRanges(String spreadsheetId, List<BarChartConfig> charts) throws IOException {
+        return batchGet(spreadsheetId, buildRanges(charts));
+    }
+
+    /**
+     * The ranges {@link #fetchBuildRanges(List)} reads, the variable block first.
+     */
+    static List<String> buildRanges(List<BarChartConfig> charts) {
+        List<String> ranges = new ArrayList<>();
+        ranges.add(LATEX_VARIABLES_RANGE);
+        if (charts != null) {
+            for (BarChartConfig chart : charts) {
+                ranges.add(SheetValues.tableCheckRange(chart.getTab(), chart.getRange()));
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Same as {@link #readLatexVariables()} but takes the values from a batch fetched earlier.
+     */
+    default Map<String, String> readLatexVariables(SheetBatch batch) {
+        return SheetValues.toLatexVariables(batch.getValues(LATEX_VARIABLES_RANGE));
+    }
+
+    /**
+     * Same as {@link #getTableFromSheet(String, String, boolean)} but takes the values from a batch
+     * fetched earlier with {@link #fetchBuildRanges(List)}.
+     */
+    default List<String[]> getTableFromSheet(SheetBatch batch, String tabName, String rangeString, boolean errorForDataAfterRange) {
+        return SheetValues.toTable(batch.getValues(SheetValues.tableCheckRange(tabName, rangeString)),
+                tabName, rangeString, errorForDataAfterRange);
+    }
+
+    /**
+     * Same as {@link #getTableFromSheet(SheetBatch, String, String, boolean)} as a columnar table,
+     * built directly from the values of the batch.
+     */
+    default SheetTable getSheetTable(SheetBatch batch, String tabName, String rangeString, boolean errorForDataAfterRange) {
+        return SheetValues.toSheetTable(batch.getValues(SheetValues.tableCheckRange(tabName, rangeString)),
+                tabName, rangeString, errorForDataAfterRange);
+    }
+
+    /**
+     * Drops any values kept in memory, so the next reads see the current data.
+     */
+    default void invalidateCache() {
+    }
+
+    default SheetValueCache.Stats getCacheStats() {
+        return new SheetValueCache.Stats(0, 0, 0, 0, 0);
+    }
+}
@@ -0,0 +1,336 @@
+package fi.panukorpela.sheetslatex.service;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The last values fetched of every range, kept in a binary file that is memory-mapped when
+ * read, so a new process can build from it before (or without) reaching the Sheets API.
+ * <p>
+ * The file starts with a header and an index of entries: key (spreadsheet id + normalised
+ * range), fetch time, and offset and length of the values. The values of a range are decoded
+ * from the mapping only when asked for. Updates are kept in memory by {@link #put} and written
+ * by {@link #flush}, which rewrites the file next to it and moves it into place, so readers in
+ * other processes see either the old or the new file.
+ */
+public class SheetSnapshotStore {
+    private static final int MAGIC = 0x534C5353; // "SLSS"
+    private static final int VERSION = 1;
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte NUMBER = 2;
+    private static final byte BOOLEAN = 3;
+    private static Logger log = LoggerFactory.getLogger(SheetSnapshotStore.class);
+
+    private final Path file;
+    // Mapping of the current file, null if there is none
+    private ByteBuffer mapped;
+    private Map<String, IndexEntry> index = Collections.emptyMap();
+    // Values put since the last flush, by key
+    private final Map<String, Entry> pending = new LinkedHashMap<>();
+    // One flush at a time; reads and puts only wait for this monitor while a flush swaps the mapping
+    private final Object flushLock = new Object();
+
+    /**
+     * Maps the file if it exists. A corrupt or incompatible file is ignored and replaced by the
+     * next update.
+     */
+    public SheetSnapshotStore(Path file) {
+        this.file = file;
+        try {
+            Mapping mapping = load(file);
+            mapped = mapping.buffer;
+            index = mapping.index;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Ignoring unreadable sheet snapshot '{}': {}", file, e.toString());
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return the stored values of the range, or null if the range has never been stored
+     */
+    public Snapshot get(String spreadsheetId, String range) {
+        String key = SheetValueCache.key(spreadsheetId, range);
+        ByteBuffer data;
+        long fetchedAtMillis;
+        synchronized (this) {
+            Entry put = pending.get(key);
+            IndexEntry entry = put == null ? index.get(key) : null;
+            if (put != null) {
+                data = put.values.duplicate();
+                fetchedAtMillis = put.fetchedAtMillis;
+            } else if (entry != null) {
+                data = mapped.duplicate().position(entry.offset).limit(entry.offset + entry.length);
+                fetchedAtMillis = entry.fetchedAtMillis;
+            } else {
+                return null;
+            }
+        }
+        return new Snapshot(readValues(data), fetchedAtMillis);
+    }
+
+    /**
+     * Stores the values of the given ranges in memory, replacing what was stored for them. They
+     * are read back right away, and written to the file by the next {@link #flush()}.
+     */
+    public void put(String spreadsheetId, Map<String, List<List<Object>>> valuesByRange, long fetchedAtMillis) {
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        valuesByRange.forEach((range, values) -> entries.put(SheetValueCache.key(spreadsheetId, range),
+                new Entry(fetchedAtMillis, encode(values != null ? values : List.of()))));
+        synchronized (this) {
+            pending.putAll(entries);
+        }
+    }
+
+    /**
+     * Same as {@link #put} followed by {@link #flush()}.
+     */
+    public void putAll(String spreadsheetId, Map<String, List<List<Object>>> valuesByRange,
+            long fetchedAtMillis) throws IOException {
+        put(spreadsheetId, valuesByRange, fetchedAtMillis);
+        flush();
+    }
+
+    /**
+     * Writes the values put since the last flush to the file, with all that was stored before.
+     * The file is written and mapped again without holding up reads and puts.
+     */
+    public void flush() throws IOException {
+        synchronized (flushLock) {
+            Map<String, Entry> flushed;
+            Map<String, Entry> entries = new LinkedHashMap<>();
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                flushed = new LinkedHashMap<>(pending);
+                ByteBuffer current = mapped;
+                index.forEach((key, entry) -> entries.put(key, new Entry(entry.fetchedAtMillis,
+                        current.duplicate().position(entry.offset).limit(entry.offset + entry.length))));
+            }
+            entries.putAll(flushed);
+            write(entries);
+            Mapping mapping = load(file);
+            synchronized (this) {
+                mapped = mapping.buffer;
+                index = mapping.index;
+                // Values put again during the write stay pending
+                flushed.forEach((key, entry) -> pending.remove(key, entry));
+            }
+        }
+    }
+
+    /**
+     * @return the number of ranges put and not yet flushed
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    private static Mapping load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not a version " + VERSION + " sheet snapshot");
+            }
+            int count = buffer.getInt();
+            Map<String, IndexEntry> loaded = new LinkedHashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                String key = readString(buffer);
+                long fetchedAtMillis = buffer.getLong();
+                int offset = buffer.getInt();
+                int length = buffer.getInt();
+                if (offset < 0 || length < 0 || offset + length > buffer.limit()) {
+                    throw new IOException("Entry '" + key + "' is outside the file");
+                }
+                loaded.put(key, new IndexEntry(fetchedAtMillis, offset, length));
+            }
+            return new Mapping(buffer, loaded);
+        } catch (NoSuchFileException e) {
+            return new Mapping(null, Collections.emptyMap());
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated sheet snapshot", e);
+        }
+    }
+
+    private void write(Map<String, Entry> entries) throws IOException {
+        List<byte[]> keys = new ArrayList<>(entries.size());
+        int headerLength = 12;
+        for (String key : entries.keySet()) {
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            keys.add(bytes);
+            headerLength += 4 + bytes.length + 8 + 4 + 4;
+        }
+        long length = headerLength;
+        for (Entry entry : entries.values()) {
+            length += entry.values.remaining();
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Sheet snapshot would exceed 2 GB");
+        }
+        ByteBuffer out = ByteBuffer.allocate((int) length);
+        out.putInt(MAGIC).putInt(VERSION).putInt(entries.size());
+        int offset = headerLength;
+        int i = 0;
+        for (Entry entry : entries.values()) {
+            byte[] key = keys.get(i++);
+            out.putInt(key.length).put(key).putLong(entry.fetchedAtMillis).putInt(offset).putInt(entry.values.remaining());
+            offset += entry.values.remaining();
+        }
+        for (Entry entry : entries.values()) {
+            out.put(entry.values.duplicate());
+        }
+        out.flip();
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = file.resolveSibling(file.getFileName() + "." + ProcessHandle.current().pid() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    static ByteBuffer encode(List<List<Object>> values) {
+        List<byte[]> strings = new ArrayList<>();
+        int length = 4;
+        for (List<Object> row : values) {
+            length += 4;
+            for (Object cell : row) {
+                length += 1;
+                if (cell instanceof Boolean) {
+                    length += 1;
+                } else if (cell != null) {
+                    byte[] bytes = cell.toString().getBytes(StandardCharsets.UTF_8);
+                    strings.add(bytes);
+                    length += 4 + bytes.length;
+                }
+            }
+        }
+        ByteBuffer out = ByteBuffer.allocate(length);
+        out.putInt(values.size());
+        int s = 0;
+        for (List<Object> row : values) {
+            out.putInt(row.size());
+            for (Object cell : row) {
+                if (cell == null) {
+                    out.put(NULL);
+                } else if (cell instanceof Boolean bool) {
+                    out.put(BOOLEAN).put((byte) (bool ? 1 : 0));
+                } else {
+                    byte[] bytes = strings.get(s++);
+                    out.put(cell instanceof Number ? NUMBER : STRING).putInt(bytes.length).put(bytes);
+                }
+            }
+        }
+        return out.flip();
+    }
+
+    private static List<List<Object>> readValues(ByteBuffer in) {
+        int rowCount = in.getInt();
+        List<List<Object>> values = new ArrayList<>(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            int cellCount = in.getInt();
+            List<Object> row = new ArrayList<>(cellCount);
+            for (int j = 0; j < cellCount; j++) {
+                byte tag = in.get();
+                row.add(switch (tag) {
+                    case NULL -> null;
+                    case BOOLEAN -> in.get() != 0;
+                    case NUMBER -> new BigDecimal(readString(in));
+                    case STRING -> readString(in);
+                    default -> throw new IllegalStateException("Unknown cell type " + tag + " in sheet snapshot");
+                });
+            }
+            values.add(row);
+        }
+        return values;
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        String value = StandardCharsets.UTF_8.decode(in.slice(in.position(), length)).toString();
+        in.position(in.position() + length);
+        return value;
+    }
+
+    private static class IndexEntry {
+        final long fetchedAtMillis;
+        final int offset;
+        final int length;
+
+        IndexEntry(long fetchedAtMillis, int offset, int length) {
+            this.fetchedAtMillis = fetchedAtMillis;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static class Mapping {
+        final ByteBuffer buffer;
+        final Map<String, IndexEntry> index;
+
+        Mapping(ByteBuffer buffer, Map<String, IndexEntry> index) {
+            this.buffer = buffer;
+            this.index = index;
+        }
+    }
+
+    private static class Entry {
+        final long fetchedAtMillis;
+        // Encoded values, from the current mapping or newly encoded
+        final ByteBuffer values;
+
+        Entry(long fetchedAtMillis, ByteBuffer values) {
+            this.fetchedAtMillis = fetchedAtMillis;
+            this.values = values;
+        }
+    }
+
+    /**
+     * Values of a range as stored, and when they were fetched.
+     */
+    public static class Snapshot {
+        private final List<List<Object>> values;
+        private final long fetchedAtMillis;
+
+        public Snapshot(List<List<Object>> values, long fetchedAtMillis) {
+            this.values = values;
+            this.fetchedAtMillis = fetchedAtMillis;
+        }
+
+        public List<List<Object>> getValues() { return values; }
+        public long getFetchedAtMillis() { return fetchedAtMillis; }
+    }
+}
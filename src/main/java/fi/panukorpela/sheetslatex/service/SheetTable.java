@@ -0,0 +1,282 @@
+package fi.panukorpela.sheetslatex.service;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A chart table stored by column. Every cell keeps the object the Sheets API returned (no copy)
+ * and, if it holds a number, its value in a primitive double column parsed once when the table
+ * is built; empty and non-numeric cells are marked in bitmaps. Swapping columns, reversing and
+ * selecting rows return views that share the columns.
+ */
+public final class SheetTable {
+    private final Column[] columns;
+    private final int[] rowLengths;
+    // View column -> stored column
+    private final int[] columnMap;
+    // View row -> stored row before reversing, null for all rows in order
+    private final int[] rowMap;
+    private final boolean reversed;
+
+    private SheetTable(Column[] columns, int[] rowLengths, int[] columnMap, int[] rowMap, boolean reversed) {
+        this.columns = columns;
+        this.rowLengths = rowLengths;
+        this.columnMap = columnMap;
+        this.rowMap = rowMap;
+        this.reversed = reversed;
+    }
+
+    /**
+     * Builds a table of the first rowLimit rows of the raw values of a range.
+     */
+    public static SheetTable fromValues(List<List<Object>> values, int rowLimit) {
+        int rowCount = values == null ? 0 : Math.min(rowLimit, values.size());
+        Builder builder = new Builder(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            builder.addRow(values.get(i));
+        }
+        return builder.build();
+    }
+
+    public static SheetTable fromRows(List<String[]> rows) {
+        Builder builder = new Builder(rows.size());
+        for (String[] row : rows) {
+            builder.addRow(List.of((Object[]) row));
+        }
+        return builder.build();
+    }
+
+    public int rowCount() {
+        return rowMap != null ? rowMap.length : rowLengths.length;
+    }
+
+    public int columnCount() {
+        return columnMap.length;
+    }
+
+    /**
+     * The cell as text, "" for a missing cell.
+     */
+    public String text(int row, int column) {
+        return SheetValues.cellText(cell(row, column));
+    }
+
+    /**
+     * The numeric value of the cell. Numbers may use a decimal comma, as formatted by Sheets.
+     * @throws NumberFormatException if the cell is empty or not a number
+     */
+    public double number(int row, int column) {
+        int storedRow = storedRow(row);
+        Column stored = columns[columnMap[column]];
+        if (!stored.numeric.get(storedRow)) {
+            throw new NumberFormatException(stored.empty.get(storedRow)
+                    ? "Empty cell in row " + (row + 1) + ", column " + (column + 1)
+                    : "For input string: \"" + stored.cells[storedRow] + "\"");
+        }
+        return stored.numbers[storedRow];
+    }
+
+    /**
+     * The numeric values of a column in view order.
+     * @throws NumberFormatException if a cell is empty or not a number
+     */
+    public double[] numbers(int column) {
+        double[] numbers = new double[rowCount()];
+        for (int i = 0; i < numbers.length; i++) {
+            numbers[i] = number(i, column);
+        }
+        return numbers;
+    }
+
+    public boolean isEmpty(int row, int column) {
+        return columns[columnMap[column]].empty.get(storedRow(row));
+    }
+
+    public boolean isNumeric(int row, int column) {
+        return columns[columnMap[column]].numeric.get(storedRow(row));
+    }
+
+    /**
+     * Number of cells the row had in the response; the API leaves out trailing empty cells.
+     */
+    public int rowLength(int row) {
+        return rowLengths[storedRow(row)];
+    }
+
+    public SheetTable swapColumns(int a, int b) {
+        int[] swapped = columnMap.clone();
+        swapped[a] = columnMap[b];
+        swapped[b] = columnMap[a];
+        return new SheetTable(columns, rowLengths, swapped, rowMap, reversed);
+    }
+
+    public SheetTable reversed() {
+        return new SheetTable(columns, rowLengths, columnMap, rowMap, !reversed);
+    }
+
+    /**
+     * A view of the given rows, in the given order.
+     */
+    public SheetTable select(int[] rows) {
+        int[] selected = new int[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            selected[i] = storedRow(rows[i]);
+        }
+        return new SheetTable(columns, rowLengths, columnMap, selected, false);
+    }
+
+    /**
+     * Copies the table to rows of strings, as returned by {@link SheetValues#toTable}.
+     */
+    public List<String[]> toRows() {
+        List<String[]> rows = new ArrayList<>(rowCount());
+        for (int i = 0; i < rowCount(); i++) {
+            String[] row = new String[Math.min(rowLength(i), columnCount())];
+            for (int j = 0; j < row.length; j++) {
+                row[j] = text(i, j);
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private Object cell(int row, int column) {
+        return columns[columnMap[column]].cells[storedRow(row)];
+    }
+
+    private int storedRow(int row) {
+        return storedRowBeforeReverse(reversed ? rowCount() - 1 - row : row);
+    }
+
+    private int storedRowBeforeReverse(int row) {
+        if (row < 0 || row >= rowCount()) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + rowCount());
+        }
+        return rowMap != null ? rowMap[row] : row;
+    }
+
+    /**
+     * Parses a cell as the chart writers always have, "12,5" being 12.5, but without exceptions
+     * or copies for cells that are not numbers.
+     * @return the value, or NaN if the text is not a number
+     */
+    static double parseNumber(String text) {
+        // Double.parseDouble ignores surrounding whitespace too
+        text = text.trim();
+        int length = text.length();
+        int i = 0;
+        if (i < length && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            i++;
+        }
+        int digits = 0;
+        int comma = -1;
+        boolean separator = false;
+        for (; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits++;
+            } else if ((c == '.' || c == ',') && !separator) {
+                separator = true;
+                comma = c == ',' ? i : -1;
+            } else if ((c == 'e' || c == 'E') && digits > 0) {
+                break;
+            } else {
+                return Double.NaN;
+            }
+        }
+        if (digits == 0) {
+            return Double.NaN;
+        }
+        if (i < length) {
+            // Exponent: sign and digits only
+            int j = i + 1;
+            if (j < length && (text.charAt(j) == '-' || text.charAt(j) == '+')) {
+                j++;
+            }
+            if (j == length) {
+                return Double.NaN;
+            }
+            for (; j < length; j++) {
+                if (text.charAt(j) < '0' || text.charAt(j) > '9') {
+                    return Double.NaN;
+                }
+            }
+        }
+        return Double.parseDouble(comma >= 0 ? text.replace(',', '.') : text);
+    }
+
+    private static final class Column {
+        private final Object[] cells;
+        private final double[] numbers;
+        private final BitSet empty = new BitSet();
+        private final BitSet numeric = new BitSet();
+
+        private Column(int rowCount) {
+            this.cells = new Object[rowCount];
+            this.numbers = new double[rowCount];
+        }
+
+        private void set(int row, Object cell) {
+            cells[row] = cell;
+            if (cell == null) {
+                empty.set(row);
+            } else if (cell instanceof Number number) {
+                numbers[row] = number.doubleValue();
+                numeric.set(row);
+            } else {
+                String text = cell.toString();
+                if (text.isBlank()) {
+                    empty.set(row);
+                } else {
+                    double value = parseNumber(text);
+                    if (!Double.isNaN(value)) {
+                        numbers[row] = value;
+                        numeric.set(row);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects rows of cells into columns.
+     */
+    public static final class Builder {
+        private final int rowCount;
+        private final int[] rowLengths;
+        private final List<Column> columns = new ArrayList<>(2);
+        private int rows;
+
+        public Builder(int rowCount) {
+            this.rowCount = rowCount;
+            this.rowLengths = new int[rowCount];
+        }
+
+        public Builder addRow(List<?> cells) {
+            int row = rows++;
+            rowLengths[row] = cells.size();
+            while (columns.size() < cells.size()) {
+                Column column = new Column(rowCount);
+                // Rows before this one were shorter
+                column.empty.set(0, row);
+                columns.add(column);
+            }
+            for (int j = 0; j < columns.size(); j++) {
+                columns.get(j).set(row, j < cells.size() ? cells.get(j) : null);
+            }
+            return this;
+        }
+
+        public SheetTable build() {
+            if (rows != rowCount) {
+                throw new IllegalStateException("Expected " + rowCount + " rows, got " + rows);
+            }
+            int[] columnMap = new int[columns.size()];
+            for (int j = 0; j < columnMap.length; j++) {
+                columnMap[j] = j;
+            }
+            return new SheetTable(columns.toArray(new Column[0]), rowLengths, columnMap, null, false);
+        }
+    }
+}
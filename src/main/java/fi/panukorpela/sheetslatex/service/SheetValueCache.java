@@ -0,0 +1,193 @@
+package fi.panukorpela.sheetslatex.service;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * In-memory cache of fetched range values, keyed by spreadsheet id + normalised range.
+ * Entries expire after a TTL and the least recently used ones are evicted once either the
+ * entry count or the estimated size in bytes exceeds its bound.
+ */
+public class SheetValueCache {
+    // Rough per-cell overhead of the cached List/String objects
+    private static final int CELL_OVERHEAD_BYTES = 48;
+
+    private final long ttlNanos;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LongSupplier nanoTime;
+    // Access-ordered, so iteration starts from the least recently used entry
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param ttlMillis  how long an entry is served, 0 disables caching altogether
+     * @param maxEntries maximum number of cached ranges
+     * @param maxBytes   maximum estimated size of all cached values
+     */
+    public SheetValueCache(long ttlMillis, int maxEntries, long maxBytes) {
+        this(ttlMillis, maxEntries, maxBytes, System::nanoTime);
+    }
+
+    SheetValueCache(long ttlMillis, int maxEntries, long maxBytes, LongSupplier nanoTime) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.nanoTime = nanoTime;
+    }
+
+    public boolean isEnabled() {
+        return ttlNanos > 0 && maxEntries > 0 && maxBytes > 0;
+    }
+
+    /**
+     * @return the cached values or null if there is no live entry for the range
+     */
+    public synchronized List<List<Object>> get(String spreadsheetId, String range) {
+        if (!isEnabled()) {
+            return null;
+        }
+        String key = key(spreadsheetId, range);
+        Entry entry = entries.get(key);
+        if (entry != null && nanoTime.getAsLong() - entry.storedAt > ttlNanos) {
+            remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.values;
+    }
+
+    public synchronized void put(String spreadsheetId, String range, List<List<Object>> values) {
+        if (!isEnabled()) {
+            return;
+        }
+        List<List<Object>> copy = copyOf(values);
+        long bytes = estimateBytes(copy);
+        if (bytes > maxBytes) {
+            return;
+        }
+        String key = key(spreadsheetId, range);
+        remove(key);
+        entries.put(key, new Entry(copy, bytes, nanoTime.getAsLong()));
+        totalBytes += bytes;
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || totalBytes > maxBytes) && eldest.hasNext()) {
+            totalBytes -= eldest.next().getValue().bytes;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(hits, misses, evictions, entries.size(), totalBytes);
+    }
+
+    private void remove(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            totalBytes -= removed.bytes;
+        }
+    }
+
+    static String key(String spreadsheetId, String range) {
+        return spreadsheetId + "|" + normalizeRange(range);
+    }
+
+    /**
+     * Normalises an A1 range so that e.g. "'Visualisations'!c42:d55" and "Visualisations!C42:D55"
+     * share a cache entry. Tab names are kept as is, cell references are upper-cased.
+     */
+    static String normalizeRange(String range) {
+        String trimmed = range.trim();
+        int bang = trimmed.lastIndexOf('!');
+        if (bang < 0) {
+            return trimmed.toUpperCase();
+        }
+        String tab = trimmed.substring(0, bang).trim();
+        if (tab.length() >= 2 && tab.startsWith("'") && tab.endsWith("'")) {
+            tab = tab.substring(1, tab.length() - 1).replace("''", "'");
+        }
+        return tab + "!" + trimmed.substring(bang + 1).trim().toUpperCase();
+    }
+
+    private static List<List<Object>> copyOf(List<List<Object>> values) {
+        if (values == null) {
+            return Collections.emptyList();
+        }
+        return values.stream()
+                .map(row -> row.stream().toList())
+                .toList();
+    }
+
+    static long estimateBytes(List<List<Object>> values) {
+        long bytes = 0;
+        for (List<Object> row : values) {
+            for (Object cell : row) {
+                bytes += CELL_OVERHEAD_BYTES + (cell != null ? 2L * cell.toString().length() : 0);
+            }
+        }
+        return bytes;
+    }
+
+    private static class Entry {
+        final List<List<Object>> values;
+        final long bytes;
+        final long storedAt;
+
+        Entry(List<List<Object>> values, long bytes, long storedAt) {
+            this.values = values;
+            this.bytes = bytes;
+            this.storedAt = storedAt;
+        }
+    }
+
+    public static class Stats {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final int entries;
+        private final long bytes;
+
+        public Stats(long hits, long misses, long evictions, int entries, long bytes) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.entries = entries;
+            this.bytes = bytes;
+        }
+
+        public long getHits() { return hits; }
+        public long getMisses() { return misses; }
+        public long getEvictions() { return evictions; }
+        public int getEntries() { return entries; }
+        public long getBytes() { return bytes; }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                   "hits=" + hits +
+                   ", misses=" + misses +
+                   ", evictions=" + evictions +
+                   ", entries=" + entries +
+                   ", bytes=" + bytes +
+                   '}';
+        }
+    }
+}
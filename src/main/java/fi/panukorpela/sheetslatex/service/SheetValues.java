@@ -0,0 +1,148 @@
+package fi.panukorpela.sheetslatex.service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Conversions from the raw values of a range (as returned by the Sheets API) to what the
+ * document build uses. Shared by all {@link SheetDataSource} implementations so that they
+ * behave identically.
+ */
+public final class SheetValues {
+    private static final Pattern RANGE_PATTERN = Pattern.compile("([A-Z]+)(\\d+):([A-Z]+)(\\d+)");
+
+    private SheetValues() {}
+
+    /**
+     * Reads LaTeX variable-value pairs, stopping at the first empty variable name.
+     * @param rows values of {@link SheetDataSource#LATEX_VARIABLES_RANGE}
+     * @return Map of variable name (from col C) -> value (from col B)
+     */
+    public static Map<String, String> toLatexVariables(List<List<Object>> rows) {
+        Map<String, String> variables = new HashMap<>();
+        if (rows != null) {
+            for (List<Object> row : rows) {
+                // Defensive: skip if col C is missing/empty
+                if (row.size() < 2 || row.get(1) == null || row.get(1).toString().trim().isEmpty()) {
+                    break;   // Stop at first empty variable name (col C)
+                }
+                String value = row.size() > 0 ? cellText(row.get(0)) : "";
+                // === Check for "Ladataan..." ===
+                if ("Ladataan...".equalsIgnoreCase(value.trim())) {
+                    throw new IllegalStateException("Google Sheet value for variable '" 
+                            + row.get(1).toString().trim() + "' is still loading (\"Ladataan...\"). Open the Sheet in browser.");
+                }
+                // Check: value looks like a decimal number with comma as decimal sep
+                // E.g. "123,45" or "-0,05" (only formatted values, unformatted numbers are BigDecimals)
+                if (row.get(0) instanceof String && value.matches("-?\\d{1,3}(,\\d+)?")) {
+                    value = value.replace(',', '.');
+                }
+                String variable = row.get(1).toString().trim();
+                // Check for duplicate key
+                if (variables.containsKey(variable)) {
+                    throw new IllegalArgumentException("Duplicate variable name found in Google Sheet: '" + variable + "'");
+                }
+                // If variable name ends with _percent or _percentage, append \%
+                if (variable.endsWith("_percent") || variable.endsWith("_percentage")) {
+                    value = value + "\\%";
+                }
+                variables.put(variable, value);
+            }
+        }
+        return variables;
+    }
+
+    /**
+     * The text of a cell. Unformatted numbers are BigDecimals and are written out in full, never
+     * in exponent notation.
+     */
+    public static String cellText(Object cell) {
+        if (cell == null) {
+            return "";
+        }
+        return cell instanceof BigDecimal number ? number.toPlainString() : cell.toString();
+    }
+
+    /**
+     * The range actually fetched for a table: the requested range plus one extra row,
+     * used to detect data continuing after the range.
+     * @param tabName e.g. "ArticleCounts"
+     * @param rangeString e.g. "A2:B18"
+     * @return e.g. "ArticleCounts!A2:B19"
+     */
+    public static String tableCheckRange(String tabName, String rangeString) {
+        Matcher matcher = parseRange(rangeString);
+        int rowEndPlusOne = Integer.parseInt(matcher.group(4)) + 1;
+        return tabName + "!" + matcher.group(1) + matcher.group(2) + ":" + matcher.group(3) + rowEndPlusOne;
+    }
+
+    private static Matcher parseRange(String rangeString) {
+        // Parse start and end rows from rangeString (e.g., "A2:B18")
+        Matcher matcher = RANGE_PATTERN.matcher(rangeString);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("rangeString must be like A2:B18");
+        }
+        return matcher;
+    }
+
+    /**
+     * Converts the values of a {@link #tableCheckRange(String, String)} to a table of the
+     * requested rows, optionally failing if the extra row contains data.
+     * @param values values of the check range
+     * @param tabName e.g. "ArticleCounts"
+     * @param rangeString e.g. "A2:B18"
+     * @return List of String arrays (one per row)
+     */
+    public static List<String[]> toTable(List<List<Object>> values, String tabName, String rangeString, boolean errorForDataAfterRange) {
+        int expectedRows = expectedRows(values, tabName, rangeString, errorForDataAfterRange);
+        List<String[]> result = new ArrayList<>();
+
+        if (values != null) {
+            // Add only the expected number of rows
+            int rowsToReturn = Math.min(expectedRows, values.size());
+            for (int i = 0; i < rowsToReturn; i++) {
+                List<Object> row = values.get(i);
+                String[] rowArr = new String[row.size()];
+                for (int j = 0; j < row.size(); j++) {
+                    rowArr[j] = cellText(row.get(j));
+                }
+                result.add(rowArr);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Same as {@link #toTable(List, String, String, boolean)} but builds a columnar table that
+     * refers to the cells of the values instead of copying them to strings.
+     */
+    public static SheetTable toSheetTable(List<List<Object>> values, String tabName, String rangeString, boolean errorForDataAfterRange) {
+        return SheetTable.fromValues(values, expectedRows(values, tabName, rangeString, errorForDataAfterRange));
+    }
+
+    /**
+     * @return the number of rows in the range, after checking the extra row for data
+     */
+    private static int expectedRows(List<List<Object>> values, String tabName, String rangeString, boolean errorForDataAfterRange) {
+        Matcher matcher = parseRange(rangeString);
+        int rowStart = Integer.parseInt(matcher.group(2));
+        int rowEnd = Integer.parseInt(matcher.group(4));
+        int rowEndPlusOne = rowEnd + 1;
+        int expectedRows = rowEnd - rowStart + 1;
+        // If there is an extra row, check if it has data
+        if (values != null && values.size() > expectedRows) {
+            List<Object> extraRow = values.get(expectedRows);
+            boolean hasData = extraRow.stream().anyMatch(cell -> cell != null && !cell.toString().trim().isEmpty());
+            if (hasData && errorForDataAfterRange) {
+                throw new IllegalStateException("Range " + tabName + "!" + rangeString +
+                        " is followed by non-empty data in row " + rowEndPlusOne);
+            }
+        }
+        return expectedRows;
+    }
+}
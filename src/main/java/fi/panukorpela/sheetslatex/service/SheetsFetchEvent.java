@@ -0,0 +1,38 @@
+package fi.panukorpela.sheetslatex.service;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One Sheets API call as seen by the build, including rate limit waits and retries.
+ */
+@Name("fi.panukorpela.sheetslatex.SheetsFetch")
+@Label("Sheets Fetch")
+@Category({ "Sheets-LaTeX", "Sheets" })
+@StackTrace(false)
+class SheetsFetchEvent extends jdk.jfr.Event {
+    @Label("Spreadsheet Id")
+    String spreadsheetId;
+
+    @Label("Method")
+    @Description("get or batchGet")
+    String method;
+
+    @Label("Ranges")
+    String ranges;
+
+    @Label("Rows")
+    long rows;
+
+    @Label("Bytes")
+    @Description("Approximate size of the values received")
+    @DataAmount
+    long bytes;
+
+    @Label("Error")
+    String error;
+}
@@ -0,0 +1,148 @@
+package fi.panukorpela.sheetslatex.service;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.api.client.http.HttpResponseException;
+
+/**
+ * Keeps Sheets API calls within the per-minute read quota and retries the ones the API turns
+ * down for the moment. Every call takes a token from a bucket holding sheets.quota.reads-per-minute
+ * tokens, refilled evenly over the minute; callers wait while the bucket is empty. Calls failing
+ * with 429 or 5xx are retried after an exponential backoff with random jitter.
+ */
+@Component
+public class SheetsRequestLimiter {
+    interface Call<T> {
+        T execute() throws IOException;
+    }
+
+    interface Sleeper {
+        void sleep(long nanos) throws InterruptedException;
+    }
+
+    private static Logger log = LoggerFactory.getLogger(SheetsRequestLimiter.class);
+    private final double capacity;
+    private final double tokensPerNano;
+    private final int maxAttempts;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+    private final LongSupplier nanoTime;
+    private final Sleeper sleeper;
+    private final DoubleSupplier random;
+    private double tokens;
+    private long lastRefill;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    @Autowired
+    public SheetsRequestLimiter(@Value("${sheets.quota.reads-per-minute:300}") int readsPerMinute,
+            @Value("${sheets.retry.max-attempts:5}") int maxAttempts,
+            @Value("${sheets.retry.initial-backoff-millis:1000}") long initialBackoffMillis,
+            @Value("${sheets.retry.max-backoff-millis:32000}") long maxBackoffMillis) {
+        this(readsPerMinute, maxAttempts, initialBackoffMillis, maxBackoffMillis, System::nanoTime,
+                TimeUnit.NANOSECONDS::sleep, () -> ThreadLocalRandom.current().nextDouble());
+    }
+
+    SheetsRequestLimiter(int readsPerMinute, int maxAttempts, long initialBackoffMillis, long maxBackoffMillis,
+            LongSupplier nanoTime, Sleeper sleeper, DoubleSupplier random) {
+        // 0 turns the rate limit off
+        this.capacity = readsPerMinute > 0 ? readsPerMinute : Double.POSITIVE_INFINITY;
+        this.tokensPerNano = readsPerMinute / (double) TimeUnit.MINUTES.toNanos(1);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialBackoffNanos = TimeUnit.MILLISECONDS.toNanos(initialBackoffMillis);
+        this.maxBackoffNanos = TimeUnit.MILLISECONDS.toNanos(maxBackoffMillis);
+        this.nanoTime = nanoTime;
+        this.sleeper = sleeper;
+        this.random = random;
+        this.tokens = capacity;
+        this.lastRefill = nanoTime.getAsLong();
+    }
+
+    /**
+     * Runs the call once a token is available, retrying it on 429 and 5xx responses.
+     */
+    <T> T execute(Call<T> call) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            acquire();
+            requests.incrementAndGet();
+            try {
+                return call.execute();
+            } catch (HttpResponseException e) {
+                if (!isRetryable(e.getStatusCode()) || attempt >= maxAttempts) {
+                    failed.incrementAndGet();
+                    throw e;
+                }
+                long backoff = backoffNanos(attempt);
+                retried.incrementAndGet();
+                log.warn("Sheets API answered {}, retrying in {} ms (attempt {} of {})", e.getStatusCode(),
+                        TimeUnit.NANOSECONDS.toMillis(backoff), attempt + 1, maxAttempts);
+                sleep(backoff);
+            }
+        }
+    }
+
+    private static boolean isRetryable(int statusCode) {
+        return statusCode == 429 || statusCode >= 500;
+    }
+
+    /**
+     * Exponential backoff with "equal jitter": half of the delay is fixed, the other half random,
+     * so that callers throttled at the same moment do not retry at the same moment.
+     */
+    long backoffNanos(int attempt) {
+        long delay = Math.min(maxBackoffNanos, initialBackoffNanos << Math.min(attempt - 1, 30));
+        return delay / 2 + (long) (random.getAsDouble() * (delay / 2));
+    }
+
+    private void acquire() throws IOException {
+        boolean waited = false;
+        while (true) {
+            long waitNanos;
+            synchronized (this) {
+                long now = nanoTime.getAsLong();
+                tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+                lastRefill = now;
+                if (tokens >= 1) {
+                    tokens--;
+                    return;
+                }
+                waitNanos = (long) Math.ceil((1 - tokens) / tokensPerNano);
+            }
+            if (!waited) {
+                waited = true;
+                throttled.incrementAndGet();
+            }
+            sleep(waitNanos);
+        }
+    }
+
+    private void sleep(long nanos) throws IOException {
+        try {
+            sleeper.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the Sheets API", e);
+        }
+    }
+
+    // Requests sent, including retries
+    public long getRequestCount() { return requests.get(); }
+    // Calls that had to wait for the rate limit
+    public long getThrottledCount() { return throttled.get(); }
+    public long getRetriedCount() { return retried.get(); }
+    // Calls that failed after their last attempt or with a status that is not retried
+    public long getFailedCount() { return failed.get(); }
+}
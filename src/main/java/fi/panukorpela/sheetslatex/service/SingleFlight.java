@@ -0,0 +1,109 @@
+package fi.panukorpela.sheetslatex.service;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Lets concurrent callers asking for the same key share one load: the first caller loads, the
+ * others wait for its result. Optionally a successful result is handed out for reuseMillis after
+ * it arrived, so a burst of requests costs one load per window. Failures are never reused.
+ */
+class SingleFlight<K, V> {
+    interface Loader<V> {
+        V load() throws IOException;
+    }
+
+    private final ConcurrentHashMap<K, Flight<V>> flights = new ConcurrentHashMap<>();
+    private final long reuseNanos;
+    private final LongSupplier nanoTime;
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong shared = new AtomicLong();
+
+    SingleFlight(long reuseMillis) {
+        this(reuseMillis, System::nanoTime);
+    }
+
+    SingleFlight(long reuseMillis, LongSupplier nanoTime) {
+        this.reuseNanos = Math.max(0, reuseMillis) * 1_000_000;
+        this.nanoTime = nanoTime;
+    }
+
+    V get(K key, Loader<V> loader) throws IOException {
+        while (true) {
+            Flight<V> flight = new Flight<>();
+            Flight<V> existing = flights.putIfAbsent(key, flight);
+            if (existing == null) {
+                return load(key, flight, loader);
+            }
+            if (existing.isExpired(nanoTime.getAsLong(), reuseNanos)) {
+                flights.remove(key, existing);
+                continue;
+            }
+            shared.incrementAndGet();
+            return existing.await();
+        }
+    }
+
+    private V load(K key, Flight<V> flight, Loader<V> loader) throws IOException {
+        loads.incrementAndGet();
+        V value;
+        try {
+            value = loader.load();
+        } catch (IOException | RuntimeException | Error e) {
+            // Later callers try again instead of getting this failure
+            flights.remove(key, flight);
+            flight.future.completeExceptionally(e);
+            throw e;
+        }
+        long now = nanoTime.getAsLong();
+        flight.completedAt = now;
+        if (reuseNanos == 0) {
+            flights.remove(key, flight);
+        } else {
+            flights.values().removeIf(other -> other.isExpired(now, reuseNanos));
+        }
+        flight.future.complete(value);
+        return value;
+    }
+
+    /**
+     * Forgets the results kept for reuse; loads in progress are still shared.
+     */
+    void forgetResults() {
+        flights.values().removeIf(flight -> flight.completedAt != null);
+    }
+
+    // Number of loads done and of calls served by another caller's load
+    long getLoads() { return loads.get(); }
+    long getShared() { return shared.get(); }
+
+    private static class Flight<V> {
+        private final CompletableFuture<V> future = new CompletableFuture<>();
+        // Set once the load succeeded
+        private volatile Long completedAt;
+
+        boolean isExpired(long now, long reuseNanos) {
+            Long completed = completedAt;
+            return completed != null && now - completed >= reuseNanos;
+        }
+
+        V await() throws IOException {
+            try {
+                return future.join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                if (cause instanceof Error error) {
+                    throw error;
+                }
+                throw new IOException("Shared fetch failed: " + cause.getMessage(), cause);
+            }
+        }
+    }
+}
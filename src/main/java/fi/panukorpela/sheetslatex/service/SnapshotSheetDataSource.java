@@ -0,0 +1,251 @@
+package fi.panukorpela.sheetslatex.service;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Serves sheet values from a local snapshot directory instead of the Sheets API, with the same
+ * range semantics: trailing empty cells and rows are left out, as the API does.
+ * <p>
+ * Each tab is a file named after it: {@code <tab>.csv} (comma separated, double quotes for
+ * quoting) or {@code <tab>.json} (an array of rows, each an array of cell values). Row 1 of the
+ * file is row 1 of the tab, column A its first column. Other spreadsheets than the configured
+ * one, read by batch runs, are subdirectories named after their spreadsheet id.
+ */
+@Service
+@ConditionalOnProperty(name = "sheets.source", havingValue = "snapshot")
+public class SnapshotSheetDataSource implements SheetDataSource {
+    private static final Pattern A1_PATTERN = Pattern.compile("([A-Z]+)(\\d+)?(?::([A-Z]+)(\\d+)?)?");
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private Logger log = LoggerFactory.getLogger(SnapshotSheetDataSource.class);
+    private final Path snapshotDir;
+    private final Map<Path, Tab> tabs = new ConcurrentHashMap<>();
+
+    public SnapshotSheetDataSource(@Value("${sheets.snapshot.dir:sheets-snapshot}") String snapshotDir) {
+        this.snapshotDir = Paths.get(snapshotDir);
+        log.info("Reading sheet values from snapshot directory '{}'", this.snapshotDir.toAbsolutePath());
+    }
+
+    @Override
+    public Map<String, String> readLatexVariables() throws Exception {
+        return SheetValues.toLatexVariables(getValues(LATEX_VARIABLES_RANGE));
+    }
+
+    @Override
+    public List<String[]> getTableFromSheet(String tabName, String rangeString, boolean errorForDataAfterRange) throws IOException {
+        return SheetValues.toTable(getValues(SheetValues.tableCheckRange(tabName, rangeString)),
+                tabName, rangeString, errorForDataAfterRange);
+    }
+
+    @Override
+    public SheetTable getSheetTable(String tabName, String rangeString, boolean errorForDataAfterRange) throws IOException {
+        return SheetValues.toSheetTable(getValues(SheetValues.tableCheckRange(tabName, rangeString)),
+                tabName, rangeString, errorForDataAfterRange);
+    }
+
+    @Override
+    public List<Object> readRange(String range) throws Exception {
+        List<List<Object>> values = getValues(range);
+        return !values.isEmpty()
+                ? values.get(0)
+                : Collections.emptyList();
+    }
+
+    @Override
+    public SheetBatch batchGet(Collection<String> ranges) throws IOException {
+        return batchGet(snapshotDir, ranges);
+    }
+
+    /**
+     * Reads the ranges from the subdirectory named after the spreadsheet id.
+     */
+    @Override
+    public SheetBatch batchGet(String spreadsheetId, Collection<String> ranges) throws IOException {
+        Path dir = snapshotDir.resolve(spreadsheetId);
+        if (!Files.isDirectory(dir)) {
+            throw new IOException("No snapshot directory '" + dir + "' for spreadsheet " + spreadsheetId);
+        }
+        return batchGet(dir, ranges);
+    }
+
+    private SheetBatch batchGet(Path dir, Collection<String> ranges) throws IOException {
+        SheetBatch batch = new SheetBatch();
+        for (String range : ranges) {
+            batch.put(range, getValues(dir, range));
+        }
+        return batch;
+    }
+
+    @Override
+    public void invalidateCache() {
+        tabs.clear();
+    }
+
+    /**
+     * Returns the values of an A1 range like "Visualisations!C42:D55", "LaTeX!B2:C" or "'My tab'!B2".
+     */
+    List<List<Object>> getValues(String range) throws IOException {
+        return getValues(snapshotDir, range);
+    }
+
+    private List<List<Object>> getValues(Path dir, String range) throws IOException {
+        int bang = range.lastIndexOf('!');
+        if (bang < 0) {
+            throw new IllegalArgumentException("Range '" + range + "' must include the tab name, e.g. Sheet1!B2");
+        }
+        String tabName = range.substring(0, bang).trim();
+        if (tabName.length() >= 2 && tabName.startsWith("'") && tabName.endsWith("'")) {
+            tabName = tabName.substring(1, tabName.length() - 1).replace("''", "'");
+        }
+        Matcher matcher = A1_PATTERN.matcher(range.substring(bang + 1).trim().toUpperCase());
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Range '" + range + "' is not a valid A1 range");
+        }
+        int colStart = columnIndex(matcher.group(1));
+        int rowStart = matcher.group(2) != null ? Integer.parseInt(matcher.group(2)) : 1;
+        int colEnd = colStart;
+        int rowEnd = matcher.group(2) != null ? rowStart : Integer.MAX_VALUE;
+        if (matcher.group(3) != null) {
+            colEnd = columnIndex(matcher.group(3));
+            rowEnd = matcher.group(4) != null ? Integer.parseInt(matcher.group(4)) : Integer.MAX_VALUE;
+        }
+
+        List<List<Object>> grid = loadTab(dir, tabName);
+        List<List<Object>> result = new ArrayList<>();
+        int lastNonEmptyRow = 0;
+        for (int r = rowStart; r <= rowEnd && r <= grid.size(); r++) {
+            List<Object> sourceRow = grid.get(r - 1);
+            List<Object> row = new ArrayList<>();
+            int lastNonEmptyCell = 0;
+            for (int c = colStart; c <= colEnd && c < sourceRow.size(); c++) {
+                Object cell = sourceRow.get(c);
+                row.add(cell != null ? cell : "");
+                if (cell != null && !cell.toString().isEmpty()) {
+                    lastNonEmptyCell = row.size();
+                }
+            }
+            // Like the Sheets API, leave out trailing empty cells and rows
+            result.add(row.subList(0, lastNonEmptyCell));
+            if (lastNonEmptyCell > 0) {
+                lastNonEmptyRow = result.size();
+            }
+        }
+        return result.subList(0, lastNonEmptyRow);
+    }
+
+    private List<List<Object>> loadTab(Path dir, String tabName) throws IOException {
+        Path csvFile = dir.resolve(tabName + ".csv");
+        Path jsonFile = dir.resolve(tabName + ".json");
+        Path file = Files.exists(csvFile) ? csvFile : jsonFile;
+        if (!Files.exists(file)) {
+            throw new IOException("No snapshot file '" + csvFile + "' or '" + jsonFile + "' for tab '" + tabName + "'");
+        }
+        FileTime modified = Files.getLastModifiedTime(file);
+        Tab tab = tabs.get(file);
+        if (tab == null || !tab.modified.equals(modified)) {
+            List<List<Object>> rows = file == csvFile ? readCsv(file) : readJson(file);
+            tab = new Tab(modified, rows);
+            tabs.put(file, tab);
+        }
+        return tab.rows;
+    }
+
+    private static List<List<Object>> readJson(Path file) throws IOException {
+        List<List<Object>> rows = OBJECT_MAPPER.readValue(file.toFile(), new TypeReference<List<List<Object>>>() {});
+        return rows != null ? rows : Collections.emptyList();
+    }
+
+    /**
+     * Minimal RFC 4180 reader: fields separated by commas, optionally quoted with double quotes,
+     * a doubled quote inside a quoted field is a literal quote and quoted fields may span lines.
+     */
+    static List<List<Object>> readCsv(Path file) throws IOException {
+        List<List<Object>> rows = new ArrayList<>();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            List<Object> row = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            boolean rowHasContent = false;
+            int ch;
+            while ((ch = reader.read()) != -1) {
+                if (quoted) {
+                    if (ch == '"') {
+                        reader.mark(1);
+                        int next = reader.read();
+                        if (next == '"') {
+                            field.append('"');
+                        } else {
+                            quoted = false;
+                            if (next != -1) {
+                                reader.reset();
+                            }
+                        }
+                    } else {
+                        field.append((char) ch);
+                    }
+                } else if (ch == '"') {
+                    quoted = true;
+                    rowHasContent = true;
+                } else if (ch == ',') {
+                    row.add(field.toString());
+                    field.setLength(0);
+                    rowHasContent = true;
+                } else if (ch == '\n') {
+                    row.add(field.toString());
+                    field.setLength(0);
+                    rows.add(row);
+                    row = new ArrayList<>();
+                    rowHasContent = false;
+                } else if (ch != '\r') {
+                    field.append((char) ch);
+                    rowHasContent = true;
+                }
+            }
+            if (rowHasContent || field.length() > 0) {
+                row.add(field.toString());
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    private static int columnIndex(String letters) {
+        int index = 0;
+        for (int i = 0; i < letters.length(); i++) {
+            index = index * 26 + (letters.charAt(i) - 'A' + 1);
+        }
+        return index - 1;
+    }
+
+    private static class Tab {
+        final FileTime modified;
+        final List<List<Object>> rows;
+
+        Tab(FileTime modified, List<List<Object>> rows) {
+            this.modified = modified;
+            this.rows = rows;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package fi.panukorpela.sheetslatex.service;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Rendering the LaTeX template with the sheet's variables into the output file.
+ */
+@Name("fi.panukorpela.sheetslatex.VariableReplacement")
+@Label("Variable Replacement")
+@Category({ "Sheets-LaTeX", "Template" })
+@StackTrace(false)
+class VariableReplacementEvent extends jdk.jfr.Event {
+    @Label("Template")
+    String template;
+
+    @Label("Output")
+    String output;
+
+    @Label("Template Size")
+    @DataAmount
+    long templateBytes;
+
+    @Label("Replacements")
+    int replacements;
+
+    @Label("Unresolved Placeholders")
+    int unresolved;
+}
@@ -0,0 +1,173 @@
+package fi.panukorpela.sheetslatex.service;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Keeps the document up to date while it is being edited. Watches the LaTeX template and the
+ * chart YAML for changes, polls the sheet every watch.poll-seconds and rebuilds only what changed:
+ * the build manifest skips the document and the charts whose inputs are the same, and the
+ * compiler skips the files unchanged since they last compiled, so a failed compile is retried.
+ */
+@Service
+@ConditionalOnProperty(name = "watch.enabled", havingValue = "true")
+public class WatchModeRunner {
+    private Logger log = LoggerFactory.getLogger(WatchModeRunner.class);
+    private final SheetDataSource sheetDataSource;
+    private final LatexVariableReplacerService latexVariableReplacerService;
+    private final ChartBuildRunner chartBuildRunner;
+    private final LatexCompiler latexCompiler;
+    private final String chartsFile;
+    private final long pollSeconds;
+    private final boolean compile;
+    private volatile boolean running;
+    private Thread thread;
+    private WatchService watchService;
+
+    public WatchModeRunner(SheetDataSource sheetDataSource, LatexVariableReplacerService latexVariableReplacerService,
+            ChartBuildRunner chartBuildRunner, LatexCompiler latexCompiler,
+            @Value("${watch.charts-file:}") String chartsFile,
+            @Value("${watch.poll-seconds:5}") long pollSeconds,
+            @Value("${watch.compile:true}") boolean compile) {
+        this.sheetDataSource = sheetDataSource;
+        this.latexVariableReplacerService = latexVariableReplacerService;
+        this.chartBuildRunner = chartBuildRunner;
+        this.latexCompiler = latexCompiler;
+        this.chartsFile = chartsFile;
+        this.pollSeconds = Math.max(1, pollSeconds);
+        this.compile = compile;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() throws IOException {
+        Set<Path> watchedFiles = new HashSet<>();
+        watchedFiles.add(Paths.get(latexVariableReplacerService.getLatexTemplateFilename()).toAbsolutePath().normalize());
+        if (!chartsFile.isEmpty()) {
+            watchedFiles.add(Paths.get(chartsFile).toAbsolutePath().normalize());
+        }
+        watchService = FileSystems.getDefault().newWatchService();
+        Set<Path> watchedDirs = new HashSet<>();
+        for (Path file : watchedFiles) {
+            if (watchedDirs.add(file.getParent())) {
+                // Editors often save by replacing the file, so creation counts as a change too
+                file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_CREATE);
+            }
+        }
+        running = true;
+        thread = new Thread(() -> watch(watchedFiles), "watch-mode");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("Watching {} and polling the sheet every {} s", watchedFiles, pollSeconds);
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        running = false;
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    private void watch(Set<Path> watchedFiles) {
+        List<BarChartConfig> charts = loadCharts();
+        rebuild(charts);
+        while (running) {
+            try {
+                WatchKey key = watchService.poll(pollSeconds, TimeUnit.SECONDS);
+                boolean chartsChanged = false;
+                // Collect everything that happened, editors tend to write a file several times
+                while (key != null) {
+                    Path dir = (Path) key.watchable();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.context() instanceof Path changed) {
+                            Path file = dir.resolve(changed).toAbsolutePath().normalize();
+                            if (watchedFiles.contains(file)) {
+                                log.info("'{}' changed", file);
+                                chartsChanged |= !chartsFile.isEmpty()
+                                        && file.equals(Paths.get(chartsFile).toAbsolutePath().normalize());
+                            }
+                        }
+                    }
+                    key.reset();
+                    key = watchService.poll();
+                }
+                if (chartsChanged) {
+                    charts = loadCharts();
+                }
+                // Template changes are picked up by the manifest hash, so every round is the same rebuild
+                rebuild(charts);
+            } catch (ClosedWatchServiceException e) {
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private List<BarChartConfig> loadCharts() {
+        if (chartsFile.isEmpty()) {
+            return Collections.emptyList();
+        }
+        try {
+            return ChartConfiguration.load(Paths.get(chartsFile)).getCharts();
+        } catch (Exception e) {
+            log.error("Could not load charts from '{}', building without charts", chartsFile, e);
+            return Collections.emptyList();
+        }
+    }
+
+    private void rebuild(List<BarChartConfig> charts) {
+        long start = System.nanoTime();
+        try {
+            // Poll the sheet past the cache, which would otherwise hide changes
+            SheetBatch batch = sheetDataSource.fetchBuildRanges(charts, true);
+            boolean documentWritten = latexVariableReplacerService.replaceVarsInLatexFile(batch);
+            ChartBuildReport chartReport = chartBuildRunner.run(charts, batch);
+            List<String> writtenCharts = new ArrayList<>();
+            for (ChartBuildReport.ChartResult result : chartReport.getWritten()) {
+                writtenCharts.add(result.getChart().getOutputFile());
+            }
+            int compiled = 0;
+            if (compile) {
+                List<LatexCompiler.CompileResult> results = new ArrayList<>(
+                        latexCompiler.compileAll(chartReport.getOutputFiles()));
+                results.add(latexCompiler.compile(latexVariableReplacerService.getLatexOutputFilename(), null));
+                compiled = (int) results.stream().filter(result -> result.getPasses() > 0).count();
+            }
+            if (!documentWritten && writtenCharts.isEmpty() && compiled == 0) {
+                return;
+            }
+            log.info("Rebuilt (document {}, {} charts, {} files compiled) in {} ms",
+                    documentWritten ? "changed" : "unchanged", writtenCharts.size(), compiled,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (Exception e) {
+            // Keep watching, the next edit may fix it
+            log.error("Rebuild failed", e);
+        }
+    }
+}
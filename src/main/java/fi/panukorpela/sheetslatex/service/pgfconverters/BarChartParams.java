@@ -13,6 +13,9 @@ public class BarChartParams {
     private int xLabelMaxLineLength = 0;
     private double xLimits = 0.0;
     private boolean showValuesOnBars = false;
+    private Downsampling downsampling = Downsampling.NONE;
+    private int maxPoints = 0;
+    private boolean externalData = false;
 
     // Private constructor
     private BarChartParams() {}
@@ -30,9 +33,33 @@ public class BarChartParams {
     public int getXLabelMaxLineLength() { return xLabelMaxLineLength; }
     public double getXLimits() { return xLimits; }
     public boolean isShowValuesOnBars() { return showValuesOnBars; }
+    public Downsampling getDownsampling() { return downsampling; }
+    public int getMaxPoints() { return maxPoints; }
+    public boolean isExternalData() { return externalData; }
 
     public static Builder builder() { return new Builder(); }
 
+    @Override
+    public String toString() {
+        return "BarChartParams{" +
+               "tab='" + tab + '\'' +
+               ", range='" + range + '\'' +
+               ", errorForDataAfterRange=" + errorForDataAfterRange +
+               ", swapColumns=" + swapColumns +
+               ", outputFile='" + outputFile + '\'' +
+               ", xLabel='" + xLabel + '\'' +
+               ", yLabel='" + yLabel + '\'' +
+               ", labelRotation=" + labelRotation +
+               ", reverseOrder=" + reverseOrder +
+               ", xLabelMaxLineLength=" + xLabelMaxLineLength +
+               ", xLimits=" + xLimits +
+               ", showValuesOnBars=" + showValuesOnBars +
+               ", downsampling=" + downsampling +
+               ", maxPoints=" + maxPoints +
+               ", externalData=" + externalData +
+               '}';
+    }
+
     public static class Builder {
         private final BarChartParams params = new BarChartParams();
 
@@ -48,6 +75,9 @@ public class BarChartParams {
         public Builder xLabelMaxLineLength(int xLabelMaxLineLength) { params.xLabelMaxLineLength = xLabelMaxLineLength; return this; }
         public Builder xLimits(double xLimits) { params.xLimits = xLimits; return this; }
         public Builder showValuesOnBars(boolean showValuesOnBars) { params.showValuesOnBars = showValuesOnBars; return this; }
+        public Builder downsampling(Downsampling downsampling) { params.downsampling = downsampling; return this; }
+        public Builder maxPoints(int maxPoints) { params.maxPoints = maxPoints; return this; }
+        public Builder externalData(boolean externalData) { params.externalData = externalData; return this; }
 
         public BarChartParams build() {
             if (params.tab == null || params.range == null) throw new IllegalArgumentException("Tab and range must be set.");
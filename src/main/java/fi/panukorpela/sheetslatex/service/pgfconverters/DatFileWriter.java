@@ -0,0 +1,79 @@
+package fi.panukorpela.sheetslatex.service.pgfconverters;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Streams a tab-separated data file for pgfplots' \addplot table. Rows go straight to a temporary
+ * file next to the target, which replaces the target on {@link #commit()}; closing without
+ * committing leaves the target untouched.
+ */
+public class DatFileWriter implements Closeable {
+    private final Path target;
+    private final Path tempFile;
+    private final Writer writer;
+    private boolean rowStarted;
+    private boolean committed;
+
+    public DatFileWriter(Path file) throws IOException {
+        this.target = file.toAbsolutePath();
+        this.tempFile = TexEmitter.tempFileFor(target);
+        this.writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The data file of a chart: its .tex file name with .dat instead.
+     */
+    public static Path dataFileFor(String chartFile) {
+        String dataFile = chartFile.endsWith(".tex")
+                ? chartFile.substring(0, chartFile.length() - 4) + ".dat"
+                : chartFile + ".dat";
+        return Path.of(dataFile);
+    }
+
+    public DatFileWriter cell(String value) throws IOException {
+        separate();
+        writer.write(value);
+        return this;
+    }
+
+    public DatFileWriter cell(int value) throws IOException {
+        return cell(Integer.toString(value));
+    }
+
+    public DatFileWriter cell(double value) throws IOException {
+        return cell(Double.toString(value));
+    }
+
+    public DatFileWriter endRow() throws IOException {
+        writer.write('\n');
+        rowStarted = false;
+        return this;
+    }
+
+    private void separate() throws IOException {
+        if (rowStarted) {
+            writer.write('\t');
+        }
+        rowStarted = true;
+    }
+
+    public void commit() throws IOException {
+        writer.close();
+        Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        committed = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!committed) {
+            writer.close();
+            Files.deleteIfExists(tempFile);
+        }
+    }
+}
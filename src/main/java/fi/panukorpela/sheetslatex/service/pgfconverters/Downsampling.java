@@ -0,0 +1,29 @@
+package fi.panukorpela.sheetslatex.service.pgfconverters;
+
+/**
+ * How a chart table longer than its maxPoints is reduced before rendering.
+ */
+public enum Downsampling {
+    // Render every row
+    NONE,
+    // Consecutive rows are merged into equally sized bins labelled "first--last"
+    SUM,
+    MEAN,
+    MAX,
+    // Largest-Triangle-Three-Buckets: keeps the rows that best preserve the shape of ordered data
+    LTTB;
+
+    /**
+     * Parses a YAML value case-insensitively; null or empty means {@link #NONE}.
+     */
+    public static Downsampling parse(String value) {
+        if (value == null || value.isBlank()) {
+            return NONE;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown downsampling '" + value + "', expected one of none, sum, mean, max, lttb");
+        }
+    }
+}
@@ -1,17 +1,77 @@
 package fi.panukorpela.sheetslatex.service.pgfconverters;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fi.panukorpela.sheetslatex.service.LatexCompiler;
+import fi.panukorpela.sheetslatex.service.SheetTable;
+
 public class MulticolourBarChartWriter {
+    private static Logger log = LoggerFactory.getLogger(MulticolourBarChartWriter.class);
+
+    // Define colors - you can customize these
+    private static final String[] COLOR_DEFINITIONS = {
+        "\\definecolor{color1}{RGB}{65,105,225}",
+        "\\definecolor{color2}{RGB}{220,53,69}",
+        "\\definecolor{color3}{RGB}{255,165,0}",
+        "\\definecolor{color4}{RGB}{40,167,69}",
+        "\\definecolor{color5}{RGB}{255,193,7}",
+        "\\definecolor{color6}{RGB}{23,162,184}",
+        "\\definecolor{color7}{RGB}{111,66,193}",
+        "\\definecolor{color8}{RGB}{255,218,185}",
+        "\\definecolor{color9}{RGB}{255,182,193}",
+        "\\definecolor{color10}{RGB}{144,238,144}",
+        "\\definecolor{color11}{RGB}{221,160,221}",
+        "\\definecolor{color12}{RGB}{135,206,250}",
+        "\\definecolor{color13}{RGB}{176,224,230}"
+    };
 
     public static void writeMulticolorBarChartFromSheets(List<String[]> table, BarChartParams params) {
-        boolean swapColumns = params.isSwapColumns();
+        writeMulticolorBarChartFromSheets(SheetTable.fromRows(table), params);
+    }
+
+    public static void writeMulticolorBarChartFromSheets(SheetTable table, BarChartParams params) {
+        writeMulticolorBarChartFromSheets(table, params, new TexEmitter());
+    }
+
+    /**
+     * Same as {@link #writeMulticolorBarChartFromSheets(SheetTable, BarChartParams)}, rendering into
+     * the given emitter, which is reset first and keeps its buffer for the caller to reuse.
+     */
+    public static void writeMulticolorBarChartFromSheets(SheetTable table, BarChartParams params, TexEmitter out) {
         String outputFile = params.getOutputFile();
+        try {
+            out.reset().ensureCapacity(2048 + 192 * table.rowCount());
+            renderMulticolorBarChart(table, params, out);
+            out.writeAtomically(Paths.get(outputFile));
+            log.info("LaTeX Multicolor Bar Chart file written: {}", outputFile);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Renders the multicolour bar chart document into the emitter without writing it anywhere.
+     * The coordinates are always inline, also with external data: every bar is its own
+     * {@code \addplot} for its colour, and each of them reading the .dat file would make TeX
+     * read it once per bar.
+     * @return the emitter, holding the rendered document
+     */
+    public static TexEmitter renderMulticolorBarChart(List<String[]> table, BarChartParams params, TexEmitter out) {
+        return renderMulticolorBarChart(SheetTable.fromRows(table), params, out);
+    }
+
+    /**
+     * Same as {@link #renderMulticolorBarChart(List, BarChartParams, TexEmitter)} for a columnar
+     * table, which is not modified.
+     */
+    public static TexEmitter renderMulticolorBarChart(SheetTable table, BarChartParams params, TexEmitter out) {
+        boolean swapColumns = params.isSwapColumns();
         String xLabel = params.getXLabel();
         String yLabel = params.getYLabel();
         boolean reverseOrder = params.isReverseOrder();
@@ -19,163 +79,133 @@ public class MulticolourBarChartWriter {
         double xLimits = params.getXLimits();
         boolean showValues = params.isShowValuesOnBars();
         
-        try {
-            if (swapColumns) {
-                table.forEach(row -> {
-                    if (row.length >= 2) {
-                        String temp = row[0];
-                        row[0] = row[1];
-                        row[1] = temp;
-                    }
-                });
-            }
-            
-            // Optionally reverse the table for X axis order
-            if (reverseOrder) {
-                Collections.reverse(table);
-            }
-            int nBars = table.size();
+        // Views of the table, the cells are not copied
+        if (swapColumns && table.columnCount() >= 2) {
+            table = table.swapColumns(0, 1);
+        }
+        
+        // Bound the number of bars of long ranges; category in column 0, count in column 1
+        table = TableDownsampler.downsample(table, params.getDownsampling(), params.getMaxPoints(), 1, 0);
+        
+        // Optionally reverse the table for X axis order
+        if (reverseOrder) {
+            table = table.reversed();
+        }
+        int nBars = table.rowCount();
 
-            // Arrays to hold the data
-            double[] counts = new double[nBars];
-            String[] labels = new String[nBars];
-            String[] categories = new String[nBars];
+        double[] counts = table.numbers(1);
+        String[] labels = new String[nBars];
+        String[] categories = new String[nBars];
 
-            for (int i = 0; i < nBars; i++) {
-                String[] row = table.get(i);
-                String countString = row[1].replace(",", ".");
-                counts[i] = Double.parseDouble(countString);
-                categories[i] = row[0]; // Keep original for symbolic coords
-                String label = row[0].replace("_", "\\_");
-                if (xLabelMaxLineLength > 0) {
-                    label = latexAxisLabelLineBreak(label, xLabelMaxLineLength);
-                }
-                labels[i] = label;
+        for (int i = 0; i < nBars; i++) {
+            categories[i] = table.text(i, 0); // Keep original for symbolic coords
+            String label = categories[i].replace("_", "\\_");
+            if (xLabelMaxLineLength > 0) {
+                label = latexAxisLabelLineBreak(label, xLabelMaxLineLength);
             }
+            labels[i] = label;
+        }
 
-            // Define colors - you can customize these
-            String[] colorDefinitions = {
-                "\\definecolor{color1}{RGB}{65,105,225}",
-                "\\definecolor{color2}{RGB}{220,53,69}",
-                "\\definecolor{color3}{RGB}{255,165,0}",
-                "\\definecolor{color4}{RGB}{40,167,69}",
-                "\\definecolor{color5}{RGB}{255,193,7}",
-                "\\definecolor{color6}{RGB}{23,162,184}",
-                "\\definecolor{color7}{RGB}{111,66,193}",
-                "\\definecolor{color8}{RGB}{255,218,185}",
-                "\\definecolor{color9}{RGB}{255,182,193}",
-                "\\definecolor{color10}{RGB}{144,238,144}",
-                "\\definecolor{color11}{RGB}{221,160,221}",
-                "\\definecolor{color12}{RGB}{135,206,250}",
-                "\\definecolor{color13}{RGB}{176,224,230}"
-            };
-
-            // Write LaTeX file
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile))) {
-                writer.write("\\documentclass[border=10pt]{standalone}\n");
-                writer.write("\\usepackage{tikz}\n");
-                writer.write("\\usepackage{pgfplots}\n");
-                writer.write("\\pgfplotsset{compat=1.18}\n\n");
-                
-                // Write color definitions
-                for (int i = 0; i < Math.min(nBars, colorDefinitions.length); i++) {
-                    writer.write(colorDefinitions[i] + "\n");
-                }
-                writer.write("\n");
-                
-                writer.write("\\begin{document}\n");
-                writer.write("\\begin{tikzpicture}\n");
-                writer.write("\\begin{axis}[\n");
-                writer.write("    ybar=0pt,\n");
-                writer.write("    bar width=0.6cm,\n");
-                writer.write("    bar shift=0pt,\n");
-                writer.write("    width=16cm,\n");
-                writer.write("    height=10cm,\n");
-                
-                if (xLimits == 0.0) {
-                    writer.write("    enlarge x limits=0.15,\n");
-                } else {
-                    writer.write("    enlarge x limits=" + xLimits + ",\n");
-                }
-                
-                if (!xLabel.isEmpty()) {
-                    writer.write("    xlabel={" + xLabel + "},\n");
-                }
-                if (!yLabel.isEmpty()) {
-                    writer.write("    ylabel={" + yLabel + "},\n");
-                }
-                
-                // Write symbolic x coords
-                writer.write("    symbolic x coords={");
-                for (int i = 0; i < categories.length; i++) {
-                    writer.write(categories[i]);
-                    if (i != categories.length - 1) writer.write(",");
-                }
-                writer.write("},\n");
-                
-                // No labels in these plots, everything in legend
-                writer.write("    xtick=\\empty,\n");
-                
-                // Find max value for y-axis
-                double maxValue = Arrays.stream(counts).max().orElse(100);
-                double yMax = Math.ceil(maxValue / 25) * 25; // Round up to nearest 25
-                if (yMax < 100) yMax = 100;
-                
-                writer.write("    ymin=0,\n");
-                writer.write("    ymax=" + yMax + ",\n");
-                writer.write("    ytick={0,25,50,75,100");
-                if (yMax > 100) {
-                    for (int i = 125; i <= yMax; i += 25) {
-                        writer.write("," + i);
-                    }
-                }
-                writer.write("},\n");
-                writer.write("    ymajorgrids=true,\n");
-                writer.write("    grid style={gray!30},\n");
-                writer.write("    legend style={\n");
-                writer.write("        at={(1.02,1)},\n");
-                writer.write("        anchor=north west,\n");
-                writer.write("        legend columns=1,\n");
-                writer.write("        font=\\small,\n");
-                writer.write("        draw=none,\n");
-                writer.write("        /tikz/mark size=0pt,\n");
-                writer.write("        legend cell align=left\n");
-                writer.write("    },\n");
-                
-                if (showValues) {
-                    writer.write("    nodes near coords,\n");
-                    writer.write("    nodes near coords align={vertical},\n");
-                    writer.write("    every node near coord/.append style={font=\\footnotesize},\n");
-                }
-                
-                writer.write("]\n\n");
-
-                // Add individual bars with different colors
-                for (int i = 0; i < nBars; i++) {
-                    writer.write("\\addplot[\n");
-                    writer.write("    forget plot,\n");
-                    writer.write("    ybar,\n");
-                    writer.write("    fill=color" + (i + 1) + ",\n");
-                    writer.write("    draw=color" + (i + 1) + "\n");
-                    writer.write("] coordinates {(" + categories[i] + ", " + counts[i] + ")};\n\n");
-                }
+        out.append("\\documentclass[border=10pt]{standalone}\n");
+        out.append("\\usepackage{tikz}\n");
+        out.append("\\usepackage{pgfplots}\n");
+        out.append("\\pgfplotsset{compat=1.18}\n");
+        out.append(LatexCompiler.PREAMBLE_END_MARKER).append("\n\n");
+        
+        // Write color definitions
+        for (int i = 0; i < Math.min(nBars, COLOR_DEFINITIONS.length); i++) {
+            out.append(COLOR_DEFINITIONS[i]).append('\n');
+        }
+        out.append('\n');
+        
+        out.append("\\begin{document}\n");
+        out.append("\\begin{tikzpicture}\n");
+        out.append("\\begin{axis}[\n");
+        out.append("    ybar=0pt,\n");
+        out.append("    bar width=0.6cm,\n");
+        out.append("    bar shift=0pt,\n");
+        out.append("    width=16cm,\n");
+        out.append("    height=10cm,\n");
+        
+        if (xLimits == 0.0) {
+            out.append("    enlarge x limits=0.15,\n");
+        } else {
+            out.append("    enlarge x limits=").append(xLimits).append(",\n");
+        }
+        
+        if (!xLabel.isEmpty()) {
+            out.append("    xlabel={").append(xLabel).append("},\n");
+        }
+        if (!yLabel.isEmpty()) {
+            out.append("    ylabel={").append(yLabel).append("},\n");
+        }
+        
+        // Write symbolic x coords
+        out.append("    symbolic x coords={");
+        for (int i = 0; i < categories.length; i++) {
+            out.append(categories[i]);
+            if (i != categories.length - 1) out.append(',');
+        }
+        out.append("},\n");
+        
+        // No labels in these plots, everything in legend
+        out.append("    xtick=\\empty,\n");
+        
+        // Find max value for y-axis
+        double maxValue = Arrays.stream(counts).max().orElse(100);
+        double yMax = Math.ceil(maxValue / 25) * 25; // Round up to nearest 25
+        if (yMax < 100) yMax = 100;
+        
+        out.append("    ymin=0,\n");
+        out.append("    ymax=").append(yMax).append(",\n");
+        out.append("    ytick={0,25,50,75,100");
+        if (yMax > 100) {
+            for (int i = 125; i <= yMax; i += 25) {
+                out.append(',').append(i);
+            }
+        }
+        out.append("},\n");
+        out.append("    ymajorgrids=true,\n");
+        out.append("    grid style={gray!30},\n");
+        out.append("    legend style={\n");
+        out.append("        at={(1.02,1)},\n");
+        out.append("        anchor=north west,\n");
+        out.append("        legend columns=1,\n");
+        out.append("        font=\\small,\n");
+        out.append("        draw=none,\n");
+        out.append("        /tikz/mark size=0pt,\n");
+        out.append("        legend cell align=left\n");
+        out.append("    },\n");
+        
+        if (showValues) {
+            out.append("    nodes near coords,\n");
+            out.append("    nodes near coords align={vertical},\n");
+            out.append("    every node near coord/.append style={font=\\footnotesize},\n");
+        }
+        
+        out.append("]\n\n");
 
-                // Create legend manually
-                writer.write("% Legend\n");
-                for (int i = 0; i < nBars; i++) {
-                    writer.write("\\addlegendimage{area legend, fill=color" + (i + 1) + ", draw=none}\n");
-                    writer.write("\\addlegendentry{" + labels[i] + "}\n");
-                }
+        // Add individual bars with different colors
+        for (int i = 0; i < nBars; i++) {
+            out.append("\\addplot[\n");
+            out.append("    forget plot,\n");
+            out.append("    ybar,\n");
+            out.append("    fill=color").append(i + 1).append(",\n");
+            out.append("    draw=color").append(i + 1).append('\n');
+            out.append("] coordinates {(").append(categories[i]).append(", ").append(counts[i]).append(")};\n\n");
+        }
 
-                writer.write("\n\\end{axis}\n");
-                writer.write("\\end{tikzpicture}\n");
-                writer.write("\\end{document}\n");
-                
-                System.out.println("LaTeX Multicolor Bar Chart file written: " + outputFile);
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+        // Create legend manually
+        out.append("% Legend\n");
+        for (int i = 0; i < nBars; i++) {
+            out.append("\\addlegendimage{area legend, fill=color").append(i + 1).append(", draw=none}\n");
+            out.append("\\addlegendentry{").append(labels[i]).append("}\n");
         }
+
+        out.append("\n\\end{axis}\n");
+        out.append("\\end{tikzpicture}\n");
+        out.append("\\end{document}\n");
+        return out;
     }
     
     /**
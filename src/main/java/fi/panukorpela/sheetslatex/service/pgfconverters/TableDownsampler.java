@@ -0,0 +1,117 @@
+package fi.panukorpela.sheetslatex.service.pgfconverters;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import fi.panukorpela.sheetslatex.service.SheetTable;
+
+/**
+ * Reduces a chart table to at most a given number of rows, so that the size of the generated
+ * LaTeX and the pdflatex time stay bounded however long the sheet range is.
+ */
+public class TableDownsampler {
+
+    private TableDownsampler() {}
+
+    /**
+     * @param table       rows of label and value cells, in sheet order; not modified
+     * @param mode        how to reduce the rows
+     * @param maxPoints   maximum number of rows to keep, 0 for no limit
+     * @param valueColumn index of the numeric cell in each row
+     * @param labelColumn index of the label cell in each row
+     * @return the table itself if it is short enough or mode is NONE. Otherwise LTTB returns a view
+     *         of the kept rows, and binning builds a new table of the aggregated rows.
+     */
+    public static SheetTable downsample(SheetTable table, Downsampling mode, int maxPoints,
+            int valueColumn, int labelColumn) {
+        int n = table.rowCount();
+        if (mode == Downsampling.NONE || maxPoints <= 0 || n <= maxPoints) {
+            return table;
+        }
+        double[] values = table.numbers(valueColumn);
+        if (mode == Downsampling.LTTB) {
+            return table.select(largestTriangleThreeBuckets(values, maxPoints));
+        }
+        int binSize = (n + maxPoints - 1) / maxPoints;
+        SheetTable.Builder result = new SheetTable.Builder((n + binSize - 1) / binSize);
+        for (int start = 0; start < n; start += binSize) {
+            int end = Math.min(n, start + binSize);
+            List<Object> row = new ArrayList<>(table.columnCount());
+            for (int j = 0; j < table.columnCount(); j++) {
+                row.add(table.text(start, j));
+            }
+            row.set(valueColumn, aggregate(values, start, end, mode));
+            if (end - start > 1) {
+                // LaTeX renders -- as an en dash
+                row.set(labelColumn, table.text(start, labelColumn) + "--" + table.text(end - 1, labelColumn));
+            }
+            result.addRow(row);
+        }
+        return result.build();
+    }
+
+    private static double aggregate(double[] values, int start, int end, Downsampling mode) {
+        double sum = 0;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = start; i < end; i++) {
+            sum += values[i];
+            max = Math.max(max, values[i]);
+        }
+        return switch (mode) {
+            case SUM -> sum;
+            case MEAN -> sum / (end - start);
+            case MAX -> max;
+            default -> throw new IllegalArgumentException("Not a binning mode: " + mode);
+        };
+    }
+
+    /**
+     * Sveinn Steinarsson's LTTB: the first and last rows are kept, the rows in between are split
+     * into maxPoints - 2 buckets and from each the row forming the largest triangle with the row
+     * kept before it and the average of the next bucket is kept. Rows are x = index, y = value.
+     * @return indexes of the kept rows, in order
+     */
+    private static int[] largestTriangleThreeBuckets(double[] values, int maxPoints) {
+        int n = values.length;
+        if (maxPoints < 3) {
+            return maxPoints == 2 ? new int[] {0, n - 1} : new int[] {0};
+        }
+        int[] kept = new int[maxPoints];
+        double bucketSize = (double) (n - 2) / (maxPoints - 2);
+        int previous = 0;
+        for (int bucket = 0; bucket < maxPoints - 2; bucket++) {
+            int start = (int) Math.floor(bucket * bucketSize) + 1;
+            int end = (int) Math.floor((bucket + 1) * bucketSize) + 1;
+            // Average of the next bucket (the last row for the last bucket)
+            int nextStart = end;
+            int nextEnd = Math.min(n, (int) Math.floor((bucket + 2) * bucketSize) + 1);
+            if (bucket == maxPoints - 3) {
+                nextStart = n - 1;
+                nextEnd = n;
+            }
+            double avgX = 0;
+            double avgY = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                avgX += i;
+                avgY += values[i];
+            }
+            avgX /= nextEnd - nextStart;
+            avgY /= nextEnd - nextStart;
+
+            double maxArea = -1;
+            int selected = start;
+            for (int i = start; i < end; i++) {
+                double area = Math.abs((previous - avgX) * (values[i] - values[previous])
+                        - (previous - i) * (avgY - values[previous]));
+                if (area > maxArea) {
+                    maxArea = area;
+                    selected = i;
+                }
+            }
+            kept[bucket + 1] = selected;
+            previous = selected;
+        }
+        kept[maxPoints - 1] = n - 1;
+        return kept;
+    }
+}
@@ -0,0 +1,127 @@
+package fi.panukorpela.sheetslatex.service.pgfconverters;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Builds a LaTeX document in memory. Appends go straight into one growable buffer; numbers are
+ * appended without creating intermediate Strings. An emitter can be {@link #reset()} and reused
+ * for the next document, keeping its buffer.
+ */
+public class TexEmitter implements CharSequence {
+    private final StringBuilder buffer;
+
+    public TexEmitter() {
+        this(4096);
+    }
+
+    public TexEmitter(int initialCapacity) {
+        this.buffer = new StringBuilder(initialCapacity);
+    }
+
+    /**
+     * Clears the content but keeps the allocated buffer.
+     */
+    public TexEmitter reset() {
+        buffer.setLength(0);
+        return this;
+    }
+
+    public TexEmitter ensureCapacity(int capacity) {
+        buffer.ensureCapacity(capacity);
+        return this;
+    }
+
+    public TexEmitter append(CharSequence text) {
+        buffer.append(text);
+        return this;
+    }
+
+    public TexEmitter append(char ch) {
+        buffer.append(ch);
+        return this;
+    }
+
+    public TexEmitter append(int value) {
+        buffer.append(value);
+        return this;
+    }
+
+    /**
+     * Appends the value formatted like {@link Double#toString(double)}.
+     */
+    public TexEmitter append(double value) {
+        buffer.append(value);
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return buffer.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return buffer.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return buffer.subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return buffer.toString();
+    }
+
+    /**
+     * The content as UTF-8, encoded straight from the buffer.
+     */
+    public byte[] toBytes() {
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(buffer));
+        byte[] result = new byte[bytes.remaining()];
+        bytes.get(result);
+        return result;
+    }
+
+    /**
+     * A temporary file next to the target, unique to this process and thread.
+     */
+    static Path tempFileFor(Path target) {
+        // Not Files.createTempFile, which would give the chart owner-only permissions
+        return target.resolveSibling(target.getFileName() + "." + ProcessHandle.current().pid()
+                + "-" + Thread.currentThread().threadId() + ".tmp");
+    }
+
+    /**
+     * Writes the content as UTF-8 to a temporary file next to the target and renames it over the
+     * target, so readers never see a half-written file.
+     */
+    public void writeAtomically(Path file) throws IOException {
+        Path target = file.toAbsolutePath();
+        Path tempFile = tempFileFor(target);
+        try {
+            try (OutputStream out = Files.newOutputStream(tempFile);
+                    Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+                char[] chunk = new char[8192];
+                for (int start = 0; start < buffer.length(); start += chunk.length) {
+                    int end = Math.min(buffer.length(), start + chunk.length);
+                    buffer.getChars(start, end, chunk, 0);
+                    writer.write(chunk, 0, end - start);
+                }
+            }
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package fi.panukorpela.sheetslatex.service.template;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A template parsed once into literal segments and variable slots:
+ * {@code literals[0] var[0] literals[1] ... var[n-1] literals[n]}. Rendering is a straight copy
+ * into a buffer sized up front, without any pattern matching.
+ */
+public class CompiledTemplate {
+    private final String[] literals;
+    private final String[] variables;
+    private final int literalLength;
+    // Spreadsheet errors lying wholly inside the literal text, found once when compiling
+    private final Set<String> literalSheetErrors;
+
+    private CompiledTemplate(List<String> literals, List<String> variables) {
+        this.literals = literals.toArray(new String[0]);
+        this.variables = variables.toArray(new String[0]);
+        int length = 0;
+        Set<String> errors = new LinkedHashSet<>();
+        for (String literal : this.literals) {
+            length += literal.length();
+            TemplateOutput.findSheetErrors(literal, errors);
+        }
+        this.literalLength = length;
+        this.literalSheetErrors = errors;
+    }
+
+    public static CompiledTemplate compile(Reader template) throws IOException {
+        List<String> literals = new ArrayList<>();
+        List<String> variables = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        TemplateScanner.scan(template, new TemplateScanner.Handler() {
+            @Override
+            public void literal(char[] chars, int offset, int length) {
+                literal.append(chars, offset, length);
+            }
+
+            @Override
+            public void variable(String name) {
+                literals.add(literal.toString());
+                literal.setLength(0);
+                variables.add(name);
+            }
+        });
+        literals.add(literal.toString());
+        return new CompiledTemplate(literals, variables);
+    }
+
+    public int getVariableCount() {
+        return variables.length;
+    }
+
+    /**
+     * Renders the template into the writer; placeholders without a value are kept as they are.
+     */
+    public TemplateRenderResult render(Map<String, String> values, Writer out) throws IOException {
+        Set<String> unresolved = new LinkedHashSet<>();
+        Set<String> sheetErrors = new LinkedHashSet<>(literalSheetErrors);
+        int replacements = 0;
+        // The last chars written, to find errors that start before a value or literal and end in it
+        String tail = "";
+        out.write(literals[0]);
+        tail = tail(tail, literals[0]);
+        for (int i = 0; i < variables.length; i++) {
+            String value = values.get(variables[i]);
+            if (value == null) {
+                unresolved.add(variables[i]);
+                value = "\\VAR{" + variables[i] + "}";
+            } else {
+                replacements++;
+                TemplateOutput.findNestedPlaceholders(value, unresolved);
+            }
+            out.write(value);
+            TemplateOutput.findSheetErrors(tail + value, sheetErrors);
+            tail = tail(tail, value);
+
+            String literal = literals[i + 1];
+            out.write(literal);
+            TemplateOutput.findSheetErrors(tail + head(literal), sheetErrors);
+            tail = tail(tail, literal);
+        }
+        return new TemplateRenderResult(replacements, unresolved, sheetErrors);
+    }
+
+    /**
+     * Renders the template to a string, see {@link #render(Map, Writer)}.
+     */
+    public String renderToString(Map<String, String> values) {
+        StringWriter out = new StringWriter(estimateLength(values));
+        try {
+            render(values, out);
+        } catch (IOException e) {
+            // StringWriter does not throw
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Renders the template to UTF-8 bytes, see {@link #render(Map, Writer)}.
+     */
+    public byte[] renderToBytes(Map<String, String> values) {
+        return renderToString(values).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private int estimateLength(Map<String, String> values) {
+        int length = literalLength;
+        for (String variable : variables) {
+            String value = values.get(variable);
+            length += value != null ? value.length() : variable.length() + 6;
+        }
+        return length;
+    }
+
+    private static String head(String text) {
+        return text.length() < TemplateOutput.LONGEST_SHEET_ERROR ? text : text.substring(0, TemplateOutput.LONGEST_SHEET_ERROR - 1);
+    }
+
+    private static String tail(String previous, String text) {
+        int keep = TemplateOutput.LONGEST_SHEET_ERROR - 1;
+        if (text.length() >= keep) {
+            return text.substring(text.length() - keep);
+        }
+        String joined = previous + text;
+        return joined.length() > keep ? joined.substring(joined.length() - keep) : joined;
+    }
+}
@@ -0,0 +1,52 @@
+package fi.panukorpela.sheetslatex.service.template;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiled templates keyed by file path. A template is compiled again when the file's
+ * modification time or size changes.
+ */
+public class CompiledTemplateCache {
+    private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+
+    public CompiledTemplate get(Path templateFile) throws IOException {
+        Path key = templateFile.toAbsolutePath().normalize();
+        BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+        Entry entry = entries.get(key);
+        if (entry == null || !entry.modified.equals(attributes.lastModifiedTime()) || entry.size != attributes.size()) {
+            try (Reader reader = Files.newBufferedReader(key, StandardCharsets.UTF_8)) {
+                entry = new Entry(attributes.lastModifiedTime(), attributes.size(), CompiledTemplate.compile(reader));
+            }
+            entries.put(key, entry);
+        }
+        return entry.template;
+    }
+
+    public void invalidate(Path templateFile) {
+        entries.remove(templateFile.toAbsolutePath().normalize());
+    }
+
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    private static class Entry {
+        final FileTime modified;
+        final long size;
+        final CompiledTemplate template;
+
+        Entry(FileTime modified, long size, CompiledTemplate template) {
+            this.modified = modified;
+            this.size = size;
+            this.template = template;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package fi.panukorpela.sheetslatex.service.template;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Writes rendered template output and checks it on the way: counts replacements, records
+ * placeholders left in the output and spreadsheet error values such as #REF! in it.
+ */
+class TemplateOutput {
+    private static final String[] SHEET_ERRORS = {"#NAME?", "#REF!", "#VALUE!", "#N/A", "#ERROR!"};
+    static final int LONGEST_SHEET_ERROR = 7;
+
+    private final Writer out;
+    // The last few chars written, to spot errors split over several writes
+    private final StringBuilder tail = new StringBuilder();
+    private final Set<String> unresolved = new LinkedHashSet<>();
+    private final Set<String> sheetErrors = new LinkedHashSet<>();
+    private int replacements;
+
+    TemplateOutput(Writer out) {
+        this.out = out;
+    }
+
+    void writeLiteral(char[] chars, int offset, int length) throws IOException {
+        out.write(chars, offset, length);
+        for (int i = offset; i < offset + length; i++) {
+            check(chars[i]);
+        }
+    }
+
+    void writeLiteral(String text) throws IOException {
+        out.write(text);
+        for (int i = 0; i < text.length(); i++) {
+            check(text.charAt(i));
+        }
+    }
+
+    /**
+     * Writes the value of a placeholder, or the placeholder itself if there is no value.
+     */
+    void writeVariable(String name, String value) throws IOException {
+        if (value == null) {
+            unresolved.add(name);
+            writeLiteral("\\VAR{" + name + "}");
+            return;
+        }
+        replacements++;
+        findNestedPlaceholders(value, unresolved);
+        writeLiteral(value);
+    }
+
+    /**
+     * Adds the placeholders in a value to the set: a value that is itself a placeholder is not
+     * expanded again, so they stay unresolved.
+     */
+    static void findNestedPlaceholders(String value, Set<String> into) throws IOException {
+        if (!value.contains("\\VAR{")) {
+            return;
+        }
+        TemplateScanner.scan(new StringReader(value), new TemplateScanner.Handler() {
+            @Override
+            public void literal(char[] chars, int offset, int length) {
+            }
+
+            @Override
+            public void variable(String nested) {
+                into.add(nested);
+            }
+        });
+    }
+
+    private void check(char ch) {
+        if (tail.length() == LONGEST_SHEET_ERROR) {
+            tail.deleteCharAt(0);
+        }
+        tail.append(ch);
+        // All the error values end with one of these
+        if (ch == '?' || ch == '!' || ch == 'A') {
+            for (String error : SHEET_ERRORS) {
+                int start = tail.length() - error.length();
+                if (start >= 0 && tail.indexOf(error, start) == start) {
+                    sheetErrors.add(error);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the spreadsheet error values found in the text to the set.
+     */
+    static void findSheetErrors(String text, Set<String> into) {
+        if (text.indexOf('#') < 0) {
+            return;
+        }
+        for (String error : SHEET_ERRORS) {
+            if (text.contains(error)) {
+                into.add(error);
+            }
+        }
+    }
+
+    TemplateRenderResult getResult() {
+        return new TemplateRenderResult(replacements, unresolved, sheetErrors);
+    }
+}
@@ -0,0 +1,32 @@
+package fi.panukorpela.sheetslatex.service.template;
+
+import java.util.Set;
+
+/**
+ * What rendering a template did: the number of placeholders replaced, the names of the ones
+ * left in the output and the spreadsheet error values (#REF! etc.) found in the output.
+ */
+public class TemplateRenderResult {
+    private final int replacements;
+    private final Set<String> unresolved;
+    private final Set<String> sheetErrors;
+
+    public TemplateRenderResult(int replacements, Set<String> unresolved, Set<String> sheetErrors) {
+        this.replacements = replacements;
+        this.unresolved = Set.copyOf(unresolved);
+        this.sheetErrors = Set.copyOf(sheetErrors);
+    }
+
+    public int getReplacements() { return replacements; }
+    public Set<String> getUnresolved() { return unresolved; }
+    public Set<String> getSheetErrors() { return sheetErrors; }
+
+    @Override
+    public String toString() {
+        return "TemplateRenderResult{" +
+               "replacements=" + replacements +
+               ", unresolved=" + unresolved +
+               ", sheetErrors=" + sheetErrors +
+               '}';
+    }
+}
@@ -0,0 +1,117 @@
+package fi.panukorpela.sheetslatex.service.template;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Single-pass scanner for {@code \VAR{name}} placeholders. Reads the template in fixed-size
+ * chunks and reports literal text and placeholders to a {@link Handler}, so memory use does not
+ * depend on the template size.
+ * <p>
+ * Matches what the regex {@code \\VAR\{([^}]+)\}} would: the name is everything up to the next
+ * closing brace and must not be empty. Text that only looks like the start of a placeholder is
+ * passed on as literal text.
+ */
+public final class TemplateScanner {
+    private static final char[] OPENING = "\\VAR{".toCharArray();
+    private static final int BUFFER_SIZE = 8192;
+    // A name this long is not a placeholder but e.g. a stray \VAR{ in a comment
+    static final int MAX_NAME_LENGTH = 4096;
+
+    public interface Handler {
+        void literal(char[] chars, int offset, int length) throws IOException;
+
+        void variable(String name) throws IOException;
+    }
+
+    private TemplateScanner() {}
+
+    public static void scan(Reader reader, Handler handler) throws IOException {
+        char[] buffer = new char[BUFFER_SIZE];
+        // Chars of a possible placeholder seen so far: a prefix of OPENING, then the name
+        StringBuilder pending = new StringBuilder();
+        int matched = 0;
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            int literalStart = 0;
+            for (int i = 0; i < read; i++) {
+                char ch = buffer[i];
+                if (matched == OPENING.length) {
+                    // Inside the name
+                    if (ch == '}') {
+                        if (pending.length() > OPENING.length) {
+                            handler.variable(pending.substring(OPENING.length));
+                        } else {
+                            // "\VAR{}" is not a placeholder
+                            pending.append(ch);
+                            handler.literal(toChars(pending), 0, pending.length());
+                        }
+                        pending.setLength(0);
+                        matched = 0;
+                        literalStart = i + 1;
+                    } else if (pending.length() - OPENING.length >= MAX_NAME_LENGTH) {
+                        pending.append(ch);
+                        handler.literal(toChars(pending), 0, pending.length());
+                        pending.setLength(0);
+                        matched = 0;
+                        literalStart = i + 1;
+                    } else {
+                        pending.append(ch);
+                    }
+                } else if (ch == OPENING[matched]) {
+                    if (matched == 0 && i > literalStart) {
+                        handler.literal(buffer, literalStart, i - literalStart);
+                    }
+                    pending.append(ch);
+                    matched++;
+                    literalStart = i + 1;
+                } else if (matched > 0) {
+                    // Not a placeholder after all; the current char may start a new one
+                    handler.literal(toChars(pending), 0, pending.length());
+                    pending.setLength(0);
+                    matched = 0;
+                    literalStart = i;
+                    if (ch == OPENING[0]) {
+                        pending.append(ch);
+                        matched = 1;
+                        literalStart = i + 1;
+                    }
+                }
+            }
+            if (matched == 0 && read > literalStart) {
+                handler.literal(buffer, literalStart, read - literalStart);
+            }
+        }
+        if (pending.length() > 0) {
+            handler.literal(toChars(pending), 0, pending.length());
+        }
+    }
+
+    /**
+     * Streams the template to the writer, replacing placeholders that have a value and keeping
+     * the others as they are.
+     */
+    public static TemplateRenderResult render(Reader template, Writer out, Map<String, String> variables) throws IOException {
+        TemplateOutput output = new TemplateOutput(out);
+        scan(template, new Handler() {
+            @Override
+            public void literal(char[] chars, int offset, int length) throws IOException {
+                output.writeLiteral(chars, offset, length);
+            }
+
+            @Override
+            public void variable(String name) throws IOException {
+                output.writeVariable(name, variables.get(name));
+            }
+        });
+        return output.getResult();
+    }
+
+    private static char[] toChars(StringBuilder sb) {
+        char[] chars = new char[sb.length()];
+        sb.getChars(0, sb.length(), chars, 0);
+        return chars;
+    }
+}
@@ -0,0 +1,52 @@
+package fi.panukorpela.sheetslatex.webapp;
+
+import java.net.URI;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import fi.panukorpela.sheetslatex.service.RenderJob;
+import fi.panukorpela.sheetslatex.service.RenderJobService;
+import fi.panukorpela.sheetslatex.service.RenderRequest;
+
+@RestController
+@RequestMapping("/render")
+public class RenderController {
+    private final RenderJobService renderJobService;
+
+    public RenderController(RenderJobService renderJobService) {
+        this.renderJobService = renderJobService;
+    }
+
+    /**
+     * Queues a build of the document and answers 202 with the job; poll its Location for the result.
+     */
+    @PostMapping
+    public ResponseEntity<RenderJob> render(@RequestBody(required = false) RenderRequest request) {
+        try {
+            RenderJob job = renderJobService.submit(request != null ? request : new RenderRequest());
+            return ResponseEntity.accepted().location(URI.create("/render/" + job.getId())).body(job);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (RejectedExecutionException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many render jobs queued");
+        }
+    }
+
+    @GetMapping("/{id}")
+    public RenderJob job(@PathVariable String id) {
+        RenderJob job = renderJobService.getJob(id);
+        if (job == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No render job " + id);
+        }
+        return job;
+    }
+}
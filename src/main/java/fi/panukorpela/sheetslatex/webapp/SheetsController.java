@@ -3,18 +3,20 @@ package fi.panukorpela.sheetslatex.webapp;
 import java.util.List;
 
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
-import fi.panukorpela.sheetslatex.service.GoogleSheetsService;
+import fi.panukorpela.sheetslatex.service.SheetDataSource;
+import fi.panukorpela.sheetslatex.service.SheetValueCache;
 
 @RestController
 @RequestMapping("/sheets")
 public class SheetsController {
-    private final GoogleSheetsService sheetsService;
+    private final SheetDataSource sheetsService;
 
-    public SheetsController(GoogleSheetsService sheetsService) {
+    public SheetsController(SheetDataSource sheetsService) {
         this.sheetsService = sheetsService;
     }
 
@@ -24,4 +26,15 @@ public class SheetsController {
     ) throws Exception {
         return sheetsService.readRange(range);
     }
+
+    @GetMapping("/cache")
+    public SheetValueCache.Stats cacheStats() {
+        return sheetsService.getCacheStats();
+    }
+
+    @PostMapping("/cache/invalidate")
+    public SheetValueCache.Stats invalidateCache() {
+        sheetsService.invalidateCache();
+        return sheetsService.getCacheStats();
+    }
 }
@@ -0,0 +1,44 @@
+package fi.panukorpela.sheetslatex.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BatchConfigurationTest {
+
+    @Test
+    void loadsSampleYaml() throws Exception {
+        Path sample = Paths.get("src/test/resources/testbatch.yaml.sample");
+        BatchConfiguration configuration = BatchConfiguration.load(sample);
+
+        assertEquals(2, configuration.getProjects().size());
+        ProjectConfig annual = configuration.getProjects().get(0);
+        assertEquals("annual-report", annual.getName());
+        assertEquals("reports/annual-charts.yaml", annual.getChartsFile());
+        assertEquals(2, annual.getConcurrency());
+        assertTrue(annual.isCompile());
+        ProjectConfig quarterly = configuration.getProjects().get(1);
+        // Named after the output when no name is given
+        assertEquals("reports/quarterly.tex", quarterly.getName());
+        assertNull(quarterly.getChartsFile());
+        assertEquals(0, quarterly.getConcurrency());
+        assertFalse(quarterly.isCompile());
+    }
+
+    @Test
+    void rejectsProjectWithoutSpreadsheet(@TempDir Path dir) throws Exception {
+        Path yaml = dir.resolve("batch.yaml");
+        Files.writeString(yaml, "projects:\n  - latexTemplateFilename: a.tex\n    latexOutputFilename: b.tex\n");
+
+        assertThrows(IllegalArgumentException.class, () -> BatchConfiguration.load(yaml));
+    }
+}
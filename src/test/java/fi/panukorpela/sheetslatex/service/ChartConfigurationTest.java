@@ -0,0 +1,24 @@
+package fi.panukorpela.sheetslatex.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.jupiter.api.Test;
+
+class ChartConfigurationTest {
+
+    @Test
+    void loadsSampleYaml() throws Exception {
+        Path sample = Paths.get("src/test/resources/testconfig.yaml.sample");
+        ChartConfiguration configuration = ChartConfiguration.load(sample);
+
+        assertEquals(1, configuration.getCharts().size());
+        BarChartConfig chart = configuration.getCharts().get(0);
+        assertEquals("writeColouredBarChartFromSheets", chart.getMethodName());
+        assertEquals("C42:D54", chart.getRange());
+        assertEquals("", chart.getxLabel());
+        assertEquals(0.12, chart.getxLimits());
+    }
+}
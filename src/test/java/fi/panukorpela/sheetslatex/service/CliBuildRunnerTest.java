@@ -0,0 +1,169 @@
+package fi.panukorpela.sheetslatex.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Builds without charts against a fake sheet, checking the exit code of each outcome.
+ */
+class CliBuildRunnerTest {
+    @TempDir
+    Path dir;
+    // What the fake document build reports
+    private boolean documentWritten = true;
+
+    @Test
+    void successExitsZero() {
+        assertEquals(0, run(new FakeSheet(new SheetBatch()), false));
+    }
+
+    @Test
+    void configurationErrorsFailTheBuild() {
+        FakeSheet sheet = new FakeSheet(null);
+        sheet.error = new IllegalStateException("Could not read the Google credentials 'credentials.json'");
+
+        assertEquals(CliBuildRunner.EXIT_BUILD_FAILED, run(sheet, false));
+    }
+
+    @Test
+    void storedValuesAreNotASuccess() {
+        SheetBatch batch = new SheetBatch();
+        batch.putStored(SheetDataSource.LATEX_VARIABLES_RANGE, List.of(), 1234);
+
+        assertEquals(CliBuildRunner.EXIT_STORED_VALUES, run(new FakeSheet(batch), false));
+    }
+
+    @Test
+    void failedCompilationExitsThree() throws IOException {
+        Files.writeString(dir.resolve("out.tex"), "\\documentclass{article}\n");
+
+        assertEquals(CliBuildRunner.EXIT_COMPILE_FAILED, run(new FakeSheet(new SheetBatch()), true));
+    }
+
+    @Test
+    void unchangedRerunOfAFailedCompileStillFails() throws IOException {
+        Files.writeString(dir.resolve("out.tex"), "\\documentclass{article}\n");
+        assertEquals(CliBuildRunner.EXIT_COMPILE_FAILED, run(new FakeSheet(new SheetBatch()), true));
+
+        // Nothing is written again, the document is still not compiled
+        documentWritten = false;
+        assertEquals(CliBuildRunner.EXIT_COMPILE_FAILED, run(new FakeSheet(new SheetBatch()), true));
+    }
+
+    @Test
+    void builtBatchExitsZero() throws IOException {
+        assertEquals(0, runBatch(new FakeSheet(new SheetBatch())));
+    }
+
+    @Test
+    void failedBatchDocumentsAreNotASuccess() throws IOException {
+        FakeSheet sheet = new FakeSheet(null);
+        sheet.error = new IllegalStateException("Sheet not found");
+
+        assertEquals(CliBuildRunner.EXIT_DOCUMENTS_FAILED, runBatch(sheet));
+    }
+
+    @Test
+    void unreadableBatchFailsTheBuild() {
+        assertEquals(CliBuildRunner.EXIT_BUILD_FAILED,
+                run(new FakeSheet(new SheetBatch()), false, dir.resolve("missing.yaml").toString()));
+    }
+
+    private int runBatch(FakeSheet sheet) throws IOException {
+        Path projects = dir.resolve("batch.yaml");
+        Files.writeString(projects, "projects:\n  - spreadsheetId: sheet\n    latexTemplateFilename: in.tex\n"
+                + "    latexOutputFilename: out.tex\n");
+        return run(sheet, false, projects.toString());
+    }
+
+    private int run(FakeSheet sheet, boolean compile) {
+        return run(sheet, compile, "");
+    }
+
+    private int run(FakeSheet sheet, boolean compile, String projectsFile) {
+        String output = dir.resolve("out.tex").toString();
+        LatexVariableReplacerService replacer = new LatexVariableReplacerService() {
+            @Override
+            public boolean replaceVarsInLatexFile(SheetBatch batch) {
+                return documentWritten;
+            }
+
+            @Override
+            public boolean replaceVarsInLatexFile(SheetBatch batch, String templateFilename, String outputFilename) {
+                return documentWritten;
+            }
+
+            @Override
+            public String getLatexOutputFilename() {
+                return output;
+            }
+        };
+        // No pdflatex there, so every compilation fails
+        LatexCompiler compiler = new LatexCompiler(dir.resolve("no-pdflatex").toString(), 1, 30, false,
+                dir.resolve("formats").toString(), 1, false,
+                new BuildManifest(dir.resolve("manifest.properties").toString(), false), new SimpleMeterRegistry());
+        ChartBuildRunner charts = new ChartBuildRunner(sheet, null, 1);
+        CliBuildRunner runner = new CliBuildRunner(sheet, replacer, charts, compiler,
+                new ProjectBatchRunner(sheet, replacer, charts, compiler, 1), "", compile, projectsFile);
+        runner.run();
+        return runner.getExitCode();
+    }
+
+    private static class FakeSheet implements SheetDataSource {
+        private final SheetBatch batch;
+        RuntimeException error;
+
+        FakeSheet(SheetBatch batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public SheetBatch fetchBuildRanges(List<BarChartConfig> charts) {
+            if (error != null) {
+                throw error;
+            }
+            return batch;
+        }
+
+        @Override
+        public SheetBatch fetchBuildRanges(String spreadsheetId, List<BarChartConfig> charts) {
+            return fetchBuildRanges(charts);
+        }
+
+        @Override
+        public Map<String, String> readLatexVariables() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<String[]> getTableFromSheet(String tabName, String rangeString, boolean errorForDataAfterRange) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Object> readRange(String range) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SheetBatch batchGet(Collection<String> ranges) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SheetBatch batchGet(String spreadsheetId, Collection<String> ranges) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
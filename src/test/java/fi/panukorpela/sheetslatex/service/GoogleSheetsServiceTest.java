@@ -0,0 +1,48 @@
+package fi.panukorpela.sheetslatex.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class GoogleSheetsServiceTest {
+
+    @Test
+    void missingCredentialsAreAConfigurationError(@TempDir Path dir) {
+        GoogleSheetsService service = new GoogleSheetsService(dir.resolve("credentials.json").toString(), 60, 1000,
+                1 << 20, 0, dir.resolve("snapshot.bin").toString(), 0, false, true,
+                new SheetsRequestLimiter(0, 1, 0, 0), new SimpleMeterRegistry());
+
+        // Not an IOException, so the snapshot store fallback does not hide it
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> service.batchGet("sheet", List.of("Data!A1:B2")));
+        assertTrue(e.getMessage().contains("credentials.json"));
+    }
+
+    @Test
+    void offlineReadsAreCounted(@TempDir Path dir) throws IOException {
+        Path store = dir.resolve("snapshot.bin");
+        List<List<Object>> values = List.of(List.of("2019", "12"));
+        new SheetSnapshotStore(store).putAll(GoogleSheetsService.valuesKey("sheet", "FORMATTED_VALUE"),
+                Map.of("Data!A1:B2", values), 1);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        GoogleSheetsService service = new GoogleSheetsService(dir.resolve("credentials.json").toString(), 60, 1000,
+                1 << 20, 0, store.toString(), 0, true, false, new SheetsRequestLimiter(0, 1, 0, 0), registry);
+
+        assertEquals(values, service.batchGet("sheet", List.of("Data!A1:B2")).getValues("Data!A1:B2"));
+
+        assertEquals(1, registry.get("sheetslatex.sheets.snapshot.served").tag("reason", "offline").counter().count());
+        assertEquals(1, registry.get("sheetslatex.sheets.cache.misses").functionCounter().count());
+        assertEquals(0, registry.get("sheetslatex.sheets.cache.hits").functionCounter().count());
+        assertEquals(0, registry.get("sheetslatex.sheets.requests").functionCounter().count());
+    }
+}
@@ -0,0 +1,144 @@
+package fi.panukorpela.sheetslatex.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Runs the compiler against shell scripts standing in for pdflatex.
+ */
+@DisabledOnOs(OS.WINDOWS)
+class LatexCompilerTest {
+    // Like pdflatex: reads the .tex file, writes the .aux, the recorder .fls and the PDF. The .aux
+    // changes on the first two runs only, as with a document needing a rerun for its references.
+    private static final String FAKE_PDFLATEX = """
+            while [ $# -gt 1 ]; do
+              case "$1" in
+                -jobname=*) job="${1#-jobname=}" ;;
+                -output-directory) shift; out="$1" ;;
+              esac
+              shift
+            done
+            cat "$1" > /dev/null || exit 1
+            runs=$(( $(cat "$out/runs" 2>/dev/null || echo 0) + 1 ))
+            echo $runs > "$out/runs"
+            echo "\\relax $(( runs < 2 ? runs : 2 ))" > "$out/$job.aux"
+            printf 'PWD %s\nINPUT %s\nOUTPUT %s\n' "$out" "$1" "$out/$job.pdf" > "$out/$job.fls"
+            echo pdf > "$out/$job.pdf"
+            """;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void passesRunUntilTheAuxFileSettles() throws Exception {
+        LatexCompiler compiler = compiler(script(FAKE_PDFLATEX), 5);
+        Path tex = Files.writeString(dir.resolve("doc.tex"), "doc");
+
+        LatexCompiler.CompileResult first = compiler.compile(tex.toString(), null);
+        assertTrue(first.isSuccess());
+        // The .aux changes twice, the third pass confirms it settled
+        assertEquals(3, first.getPasses());
+
+        Files.writeString(tex, "edited doc");
+        LatexCompiler.CompileResult second = compiler.compile(tex.toString(), null);
+        assertEquals(1, second.getPasses());
+        assertEquals("4", Files.readString(dir.resolve("runs")).trim());
+    }
+
+    @Test
+    void passesStopAtTheLimit() throws Exception {
+        LatexCompiler compiler = compiler(script(FAKE_PDFLATEX), 2);
+        Path tex = Files.writeString(dir.resolve("doc.tex"), "doc");
+
+        LatexCompiler.CompileResult result = compiler.compile(tex.toString(), null);
+
+        assertTrue(result.isSuccess());
+        assertEquals(2, result.getPasses());
+    }
+
+    @Test
+    void unchangedInputsAreNotCompiledAgain() throws Exception {
+        Path pdflatex = script(FAKE_PDFLATEX);
+        Path tex = Files.writeString(dir.resolve("doc.tex"), "doc");
+        compiler(pdflatex, 3).compile(tex.toString(), null);
+
+        // A new compiler, as in the next process, reads the manifest
+        LatexCompiler.CompileResult unchanged = compiler(pdflatex, 3).compile(tex.toString(), null);
+        assertTrue(unchanged.isSuccess());
+        assertEquals(0, unchanged.getPasses());
+
+        Files.writeString(tex, "edited doc");
+        assertEquals(1, compiler(pdflatex, 3).compile(tex.toString(), null).getPasses());
+    }
+
+    @Test
+    void failedCompilesAreForgottenAcrossProcesses() throws Exception {
+        Path pdflatex = script(FAKE_PDFLATEX);
+        Path tex = Files.writeString(dir.resolve("doc.tex"), "doc");
+        compiler(pdflatex, 3).compile(tex.toString(), null);
+        // An edit that fails to compile, leaving a broken PDF behind
+        Files.writeString(tex, "broken doc");
+        script("echo broken > \"$(dirname \"$0\")/doc.pdf\"\nexit 1\n");
+        assertFalse(compiler(pdflatex, 3).compile(tex.toString(), null).isSuccess());
+
+        // Reverting the edit must not count as up to date with the PDF of the first compile
+        script(FAKE_PDFLATEX);
+        Files.writeString(tex, "doc");
+        LatexCompiler.CompileResult reverted = compiler(pdflatex, 3).compile(tex.toString(), null);
+        assertEquals(1, reverted.getPasses());
+        assertEquals("pdf", Files.readString(dir.resolve("doc.pdf")).trim());
+    }
+
+    @Test
+    void interruptingACompileKillsTeX() throws Exception {
+        Path pidFile = dir.resolve("pid");
+        // Like pdflatex running mktexpk: the shell waits for a child of its own
+        LatexCompiler compiler = compiler(script("echo $$ > '" + pidFile + "'\nsleep 60\n"), 3);
+        Path tex = Files.writeString(dir.resolve("doc.tex"), "doc");
+        Thread compiling = new Thread(() -> compiler.compile(tex.toString(), null));
+        compiling.start();
+        while (!Files.exists(pidFile) || Files.readString(pidFile).isBlank()) {
+            Thread.sleep(10);
+        }
+        ProcessHandle pdflatex = ProcessHandle.of(Long.parseLong(Files.readString(pidFile).trim())).orElseThrow();
+        while (pdflatex.children().findAny().isEmpty()) {
+            Thread.sleep(10);
+        }
+        ProcessHandle child = pdflatex.children().findAny().orElseThrow();
+
+        compiling.interrupt();
+        compiling.join(5000);
+
+        assertFalse(compiling.isAlive());
+        pdflatex.onExit().get(5, TimeUnit.SECONDS);
+        child.onExit().get(5, TimeUnit.SECONDS);
+        assertFalse(child.isAlive());
+    }
+
+    private Path script(String body) throws IOException {
+        Path script = dir.resolve("pdflatex");
+        Files.writeString(script, "#!/bin/sh\n" + body);
+        Files.setPosixFilePermissions(script, PosixFilePermissions.fromString("rwx------"));
+        return script;
+    }
+
+    private LatexCompiler compiler(Path pdflatex, int maxPasses) {
+        BuildManifest manifest = new BuildManifest(dir.resolve("manifest.properties").toString(), true);
+        return new LatexCompiler(pdflatex.toString(), 1, 30, false, dir.resolve("formats").toString(),
+                maxPasses, true, manifest, new SimpleMeterRegistry());
+    }
+}
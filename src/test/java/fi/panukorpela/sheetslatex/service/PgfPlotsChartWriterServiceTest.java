@@ -1,7 +1,24 @@
 package fi.panukorpela.sheetslatex.service;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import fi.panukorpela.sheetslatex.service.pgfconverters.BarChartParams;
+import fi.panukorpela.sheetslatex.service.pgfconverters.TexEmitter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
 
 class PgfPlotsChartWriterServiceTest {
 
@@ -11,5 +28,97 @@ class PgfPlotsChartWriterServiceTest {
                 "completion: certain amount of activities", 15);
         assertEquals("completion:\\\\certain amount\\\\of activities", lineBreaksAdded);
     }
-}
 
+    @Test
+    void reusedEmittersStartEmpty(@TempDir Path dir) throws Exception {
+        PgfPlotsChartWriterService service = new PgfPlotsChartWriterService(null,
+                new BuildManifest(dir.resolve("manifest.properties").toString(), false), new SimpleMeterRegistry());
+        List<String[]> longTable = List.of(new String[] { "2019", "12" }, new String[] { "2020", "14" },
+                new String[] { "2021", "9" });
+        List<String[]> shortTable = List.<String[]>of(new String[] { "2022", "1" });
+        BarChartParams first = BarChartParams.builder().tab("Data").range("A1:B3").outputFile(dir.resolve("first.tex").toString()).build();
+        BarChartParams second = BarChartParams.builder().tab("Data").range("A1:B3").outputFile(dir.resolve("second.tex").toString()).build();
+
+        service.writeBarChart(longTable, first);
+        service.writeBarChart(shortTable, second);
+
+        TexEmitter expected = service.renderBarChart(shortTable, second, new TexEmitter());
+        assertEquals(expected.toString(), Files.readString(dir.resolve("second.tex"), StandardCharsets.UTF_8));
+        assertArrayEquals(expected.toString().getBytes(StandardCharsets.UTF_8), expected.toBytes());
+    }
+
+    @Test
+    void missingDataFileIsRewritten(@TempDir Path dir) throws Exception {
+        Files.writeString(dir.resolve("Data.csv"), "2019,12\n2020,14\n2021,9\n");
+        SnapshotSheetDataSource sheets = new SnapshotSheetDataSource(dir.toString());
+        PgfPlotsChartWriterService service = new PgfPlotsChartWriterService(sheets,
+                new BuildManifest(dir.resolve("manifest.properties").toString(), true), new SimpleMeterRegistry());
+        BarChartConfig chart = new BarChartConfig();
+        chart.setMethodName("writeBarChartFromSheets");
+        chart.setTab("Data");
+        chart.setRange("A1:B3");
+        chart.setOutputFile(dir.resolve("chart.tex").toString());
+        chart.setExternalData(true);
+        SheetBatch batch = sheets.batchGet(List.of(SheetValues.tableCheckRange("Data", "A1:B3")));
+
+        assertTrue(service.writeChartFromBatch(chart, batch));
+        assertFalse(service.writeChartFromBatch(chart, batch));
+        Files.delete(dir.resolve("chart.dat"));
+
+        assertTrue(service.writeChartFromBatch(chart, batch));
+        assertTrue(Files.exists(dir.resolve("chart.dat")));
+    }
+
+    @Test
+    void renderedChartsAreMeasured(@TempDir Path dir) throws Exception {
+        Files.writeString(dir.resolve("Data.csv"), "2019,12\n2020,14\n2021,9\n");
+        SnapshotSheetDataSource sheets = new SnapshotSheetDataSource(dir.toString());
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        PgfPlotsChartWriterService service = new PgfPlotsChartWriterService(sheets,
+                new BuildManifest(dir.resolve("manifest.properties").toString(), true), registry);
+        BarChartConfig chart = new BarChartConfig();
+        chart.setMethodName("writeBarChartFromSheets");
+        chart.setTab("Data");
+        chart.setRange("A1:B3");
+        chart.setOutputFile(dir.resolve("chart.tex").toString());
+        SheetBatch batch = sheets.batchGet(List.of(SheetValues.tableCheckRange("Data", "A1:B3")));
+
+        service.writeChartFromBatch(chart, batch);
+        // Unchanged, so not rendered again
+        service.writeChartFromBatch(chart, batch);
+
+        assertEquals(1, registry.get("sheetslatex.chart.render").tag("method", "writeBarChartFromSheets").timer().count());
+        assertEquals(3, registry.get("sheetslatex.chart.rows").tag("method", "writeBarChartFromSheets").summary()
+                .totalAmount());
+    }
+
+    @Test
+    void renderedChartsAreRecordedForFlightRecorder(@TempDir Path dir) throws Exception {
+        Files.writeString(dir.resolve("Data.csv"), "2019,12\n2020,14\n2021,9\n");
+        SnapshotSheetDataSource sheets = new SnapshotSheetDataSource(dir.toString());
+        PgfPlotsChartWriterService service = new PgfPlotsChartWriterService(sheets,
+                new BuildManifest(dir.resolve("manifest.properties").toString(), true), new SimpleMeterRegistry());
+        BarChartConfig chart = new BarChartConfig();
+        chart.setMethodName("writeBarChartFromSheets");
+        chart.setTab("Data");
+        chart.setRange("A1:B3");
+        chart.setOutputFile(dir.resolve("chart.tex").toString());
+        Path dump = dir.resolve("render.jfr");
+
+        try (Recording recording = new Recording()) {
+            recording.enable("fi.panukorpela.sheetslatex.ChartRender");
+            recording.start();
+            service.writeChartFromBatch(chart, sheets.batchGet(List.of(SheetValues.tableCheckRange("Data", "A1:B3"))));
+            recording.stop();
+            recording.dump(dump);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(dump).stream()
+                .filter(event -> event.getEventType().getName().equals("fi.panukorpela.sheetslatex.ChartRender"))
+                .toList();
+        assertEquals(1, events.size());
+        assertEquals("writeBarChartFromSheets", events.get(0).getString("method"));
+        assertEquals(chart.getOutputFile(), events.get(0).getString("outputFile"));
+        assertEquals(3, events.get(0).getInt("rows"));
+    }
+}
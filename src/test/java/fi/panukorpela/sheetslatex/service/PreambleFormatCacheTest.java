@@ -0,0 +1,76 @@
+package fi.panukorpela.sheetslatex.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Dumps formats with shell scripts standing in for pdflatex, which write the .fmt file and
+ * count their runs.
+ */
+@DisabledOnOs(OS.WINDOWS)
+class PreambleFormatCacheTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void forgottenFormatsAreDumpedAgainAfterARestart() throws IOException {
+        Path pdflatex = fakePdflatex("");
+        Path chart = chart();
+        String formatName = new PreambleFormatCache(dir.resolve("formats"), pdflatex.toString(), 30).formatFor(chart);
+        assertNotNull(formatName);
+        assertEquals(1, runs());
+
+        PreambleFormatCache cache = new PreambleFormatCache(dir.resolve("formats"), pdflatex.toString(), 30);
+        assertEquals(formatName, cache.formatFor(chart));
+        assertEquals(1, runs());
+
+        cache.forget(formatName);
+        assertNull(cache.formatFor(chart));
+        assertFalse(Files.exists(dir.resolve("formats").resolve(formatName + ".fmt")));
+        assertEquals(formatName, new PreambleFormatCache(dir.resolve("formats"), pdflatex.toString(), 30).formatFor(chart));
+        assertEquals(2, runs());
+    }
+
+    @Test
+    void timedOutDumpsLeaveNoFormat() throws IOException {
+        Path pdflatex = fakePdflatex("sleep 30\n");
+
+        assertNull(new PreambleFormatCache(dir.resolve("formats"), pdflatex.toString(), 1).formatFor(chart()));
+        try (var files = Files.list(dir.resolve("formats"))) {
+            assertTrue(files.noneMatch(file -> file.toString().endsWith(".fmt")));
+        }
+    }
+
+    private Path chart() throws IOException {
+        return Files.writeString(dir.resolve("chart.tex"), "\\documentclass{standalone}\n"
+                + LatexCompiler.PREAMBLE_END_MARKER + "\n\\begin{document}\\end{document}\n");
+    }
+
+    private int runs() throws IOException {
+        return Files.readAllLines(dir.resolve("runs")).size();
+    }
+
+    private Path fakePdflatex(String afterDump) throws IOException {
+        Path script = dir.resolve("pdflatex");
+        Files.writeString(script, "#!/bin/sh\n"
+                + "echo run >> '" + dir.resolve("runs") + "'\n"
+                + "for arg; do case $arg in -jobname=*) job=${arg#-jobname=};; esac; done\n"
+                + "echo fmt > \"$job.fmt\"\n"
+                + afterDump);
+        Files.setPosixFilePermissions(script, PosixFilePermissions.fromString("rwx------"));
+        return script;
+    }
+}
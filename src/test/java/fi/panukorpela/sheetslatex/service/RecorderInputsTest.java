@@ -0,0 +1,48 @@
+package fi.panukorpela.sheetslatex.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RecorderInputsTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void inputsLeaveOutWhatTheRunWrote() throws IOException {
+        Path fls = dir.resolve("doc.fls");
+        Files.writeString(fls, String.join("\n",
+                "PWD " + dir,
+                "INPUT /usr/share/texmf/tex/latex/base/article.cls",
+                "INPUT doc.tex",
+                "INPUT ./chart.tex",
+                "INPUT doc.aux",
+                "OUTPUT doc.aux",
+                "OUTPUT doc.pdf",
+                "INPUT doc.tex") + "\n");
+
+        assertEquals(Set.of(Path.of("/usr/share/texmf/tex/latex/base/article.cls"), dir.resolve("doc.tex"),
+                dir.resolve("chart.tex")), RecorderInputs.read(fls).getInputs());
+    }
+
+    @Test
+    void hashFollowsLocalContent() throws IOException {
+        Path chart = dir.resolve("chart.tex");
+        Files.writeString(chart, "a");
+        Path fls = dir.resolve("doc.fls");
+        Files.writeString(fls, "PWD " + dir + "\nINPUT chart.tex\n");
+        RecorderInputs inputs = RecorderInputs.read(fls);
+
+        String before = inputs.addTo(new BuildManifest.InputHash(), dir).toHex();
+        assertEquals(before, inputs.addTo(new BuildManifest.InputHash(), dir).toHex());
+        Files.writeString(chart, "b");
+        assertNotEquals(before, inputs.addTo(new BuildManifest.InputHash(), dir).toHex());
+    }
+}
@@ -0,0 +1,126 @@
+package fi.panukorpela.sheetslatex.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Runs jobs that only replace the variables, with a document build that waits for the test.
+ */
+class RenderJobServiceTest {
+    @TempDir
+    Path dir;
+    // Released by the test to let the running builds finish
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch started = new CountDownLatch(1);
+    private RenderJobService service;
+
+    @BeforeEach
+    void createService() throws IOException {
+        Files.writeString(dir.resolve("LaTeX.csv"), "name,value,variable\n");
+        service = newService(1, 1, 2);
+    }
+
+    @AfterEach
+    void shutdown() {
+        release.countDown();
+        service.shutdown();
+    }
+
+    @Test
+    void jobsMoveFromQueuedToSucceeded() throws Exception {
+        RenderJob running = service.submit(new RenderRequest());
+        RenderJob queued = service.submit(new RenderRequest());
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertEquals(RenderJob.Status.RUNNING, running.getStatus());
+        assertEquals(RenderJob.Status.QUEUED, queued.getStatus());
+
+        release.countDown();
+        awaitFinished(queued);
+        assertEquals(RenderJob.Status.SUCCEEDED, running.getStatus());
+        assertEquals(RenderJob.Status.SUCCEEDED, queued.getStatus());
+        assertEquals(List.of("fetch", "variables", "charts"), List.copyOf(queued.getStageMillis().keySet()));
+        assertEquals(List.of("out.tex"), queued.getArtifacts());
+    }
+
+    @Test
+    void fullQueueRejectsJobs() throws Exception {
+        service.submit(new RenderRequest());
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        service.submit(new RenderRequest());
+
+        assertThrows(RejectedExecutionException.class, () -> service.submit(new RenderRequest()));
+        assertEquals(2, service.getJobs().size());
+    }
+
+    @Test
+    void finishedJobsAreEvicted() throws Exception {
+        release.countDown();
+        RenderJob first = service.submit(new RenderRequest());
+        awaitFinished(first);
+        RenderJob second = service.submit(new RenderRequest());
+        awaitFinished(second);
+        RenderJob third = service.submit(new RenderRequest());
+
+        assertNull(service.getJob(first.getId()));
+        assertNotNull(service.getJob(second.getId()));
+        assertNotNull(service.getJob(third.getId()));
+    }
+
+    @Test
+    void chartFilesOutsideTheChartsDirectoryAreRefused() {
+        RenderRequest request = new RenderRequest();
+        request.setChartsFile("../charts.yaml");
+
+        assertThrows(IllegalArgumentException.class, () -> service.submit(request));
+        request.setChartsFile(dir.getParent().resolve("charts.yaml").toString());
+        assertThrows(IllegalArgumentException.class, () -> service.submit(request));
+        assertTrue(service.getJobs().isEmpty());
+    }
+
+    private static void awaitFinished(RenderJob job) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!job.isFinished() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(job.isFinished(), "job " + job.getStatus());
+    }
+
+    /**
+     * A service whose document build waits for {@link #release}.
+     */
+    private RenderJobService newService(int threads, int queueCapacity, int maxRetained) {
+        LatexVariableReplacerService replacer = new LatexVariableReplacerService() {
+            @Override
+            public boolean replaceVarsInLatexFile(SheetBatch batch) throws Exception {
+                started.countDown();
+                release.await();
+                return true;
+            }
+
+            @Override
+            public String getLatexOutputFilename() {
+                return "out.tex";
+            }
+        };
+        SheetDataSource sheets = new SnapshotSheetDataSource(dir.toString());
+        return new RenderJobService(sheets, replacer, new ChartBuildRunner(sheets, null, 1), null,
+                threads, queueCapacity, maxRetained, dir.toString());
+    }
+}
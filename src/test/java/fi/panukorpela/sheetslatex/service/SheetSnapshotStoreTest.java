@@ -0,0 +1,81 @@
+package fi.panukorpela.sheetslatex.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SheetSnapshotStoreTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void storedValuesSurviveANewStore() throws IOException {
+        Path file = dir.resolve("snapshot.bin");
+        List<List<Object>> values = List.of(
+                List.of("Year", "Count"),
+                Arrays.asList("2019", new BigDecimal("12.50"), null, true),
+                List.of("Åäö", ""));
+        new SheetSnapshotStore(file).putAll("sheet", Map.of("Data!A1:D3", values), 1234);
+
+        SheetSnapshotStore.Snapshot snapshot = new SheetSnapshotStore(file).get("sheet", "'Data'!a1:d3");
+
+        assertEquals(values, snapshot.getValues());
+        assertEquals(1234, snapshot.getFetchedAtMillis());
+    }
+
+    @Test
+    void updatesKeepOtherRanges() throws IOException {
+        SheetSnapshotStore store = new SheetSnapshotStore(dir.resolve("snapshot.bin"));
+        store.putAll("sheet", Map.of("A!A1:B2", List.of(List.of("old")), "B!A1:B2", List.of(List.of("b"))), 1);
+        store.putAll("sheet", Map.of("A!A1:B2", List.of(List.of("new"))), 2);
+
+        assertEquals(List.of(List.of("new")), store.get("sheet", "A!A1:B2").getValues());
+        assertEquals(2, store.get("sheet", "A!A1:B2").getFetchedAtMillis());
+        assertEquals(List.of(List.of("b")), store.get("sheet", "B!A1:B2").getValues());
+        assertNull(store.get("other", "A!A1:B2"));
+        assertEquals(List.of(List.of("b")), new SheetSnapshotStore(store.getFile()).get("sheet", "B!A1:B2").getValues());
+    }
+
+    @Test
+    void corruptFilesAreIgnored() throws IOException {
+        Path file = dir.resolve("snapshot.bin");
+        Files.write(file, new byte[] {1, 2, 3});
+
+        SheetSnapshotStore store = new SheetSnapshotStore(file);
+        assertNull(store.get("sheet", "A!A1:B2"));
+
+        store.putAll("sheet", Map.of("A!A1:B2", List.of(List.of("a"))), 1);
+        assertEquals(List.of(List.of("a")), new SheetSnapshotStore(file).get("sheet", "A!A1:B2").getValues());
+    }
+
+    @Test
+    void putValuesAreReadBeforeTheyAreFlushed() throws IOException {
+        Path file = dir.resolve("snapshot.bin");
+        SheetSnapshotStore store = new SheetSnapshotStore(file);
+        store.putAll("sheet", Map.of("A!A1:B2", List.of(List.of("a"))), 1);
+        store.put("sheet", Map.of("B!A1:B2", List.of(List.of("b"))), 2);
+        store.put("sheet", Map.of("C!A1:B2", List.of(List.of("c"))), 3);
+
+        assertEquals(List.of(List.of("b")), store.get("sheet", "B!A1:B2").getValues());
+        assertEquals(2, store.getPendingCount());
+        assertNull(new SheetSnapshotStore(file).get("sheet", "B!A1:B2"));
+
+        store.flush();
+
+        assertEquals(0, store.getPendingCount());
+        SheetSnapshotStore reopened = new SheetSnapshotStore(file);
+        assertEquals(List.of(List.of("a")), reopened.get("sheet", "A!A1:B2").getValues());
+        assertEquals(List.of(List.of("c")), reopened.get("sheet", "C!A1:B2").getValues());
+        assertEquals(3, reopened.get("sheet", "C!A1:B2").getFetchedAtMillis());
+    }
+}
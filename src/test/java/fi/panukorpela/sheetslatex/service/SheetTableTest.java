@@ -0,0 +1,87 @@
+package fi.panukorpela.sheetslatex.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class SheetTableTest {
+
+    private static SheetTable table() {
+        return SheetTable.fromValues(List.of(
+                List.of("12,5", "2019"),
+                List.of("7", "2020"),
+                List.of(new BigDecimal("3"), "2021"),
+                List.of("x", "2022")), 3);
+    }
+
+    @Test
+    void parsesNumbersOnceIntoColumns() {
+        SheetTable table = table();
+        assertEquals(3, table.rowCount());
+        assertEquals(2, table.columnCount());
+        assertArrayEquals(new double[] {12.5, 7, 3}, table.numbers(0));
+        assertEquals("12,5", table.text(0, 0));
+        assertEquals("3", table.text(2, 0));
+    }
+
+    @Test
+    void unformattedNumbersAreUsedAsIs() {
+        SheetTable table = SheetTable.fromValues(List.of(List.of("2019", new BigDecimal("1E+3")),
+                List.of("2020", new BigDecimal("0.25"))), 2);
+        assertArrayEquals(new double[] {1000, 0.25}, table.numbers(1));
+        assertEquals("1000", table.text(0, 1));
+    }
+
+    @Test
+    void swapAndReverseAreViews() {
+        SheetTable table = table();
+        SheetTable view = table.swapColumns(0, 1).reversed();
+        assertEquals("2021", view.text(0, 0));
+        assertEquals(3, view.number(0, 1));
+        assertArrayEquals(new double[] {2021, 2020, 2019}, view.numbers(0));
+        // The table itself is unchanged
+        assertEquals("12,5", table.text(0, 0));
+        assertEquals(table.toRows().get(0)[1], view.reversed().toRows().get(0)[0]);
+    }
+
+    @Test
+    void selectKeepsTheGivenRows() {
+        SheetTable view = table().reversed().select(new int[] {0, 2});
+        assertEquals(2, view.rowCount());
+        assertEquals("2021", view.text(0, 1));
+        assertEquals("2019", view.text(1, 1));
+    }
+
+    @Test
+    void raggedRowsHaveEmptyCells() {
+        SheetTable table = SheetTable.fromValues(List.of(List.of("a"), List.of("b", " "), List.of("c", "4")), 3);
+        assertEquals(2, table.columnCount());
+        assertTrue(table.isEmpty(0, 1));
+        assertTrue(table.isEmpty(1, 1));
+        assertFalse(table.isNumeric(1, 1));
+        assertEquals("", table.text(0, 1));
+        assertEquals(1, table.toRows().get(0).length);
+        assertThrows(NumberFormatException.class, () -> table.number(0, 1));
+        assertEquals(4, table.number(2, 1));
+    }
+
+    @Test
+    void nonNumbersAreNotParsed() {
+        SheetTable table = SheetTable.fromValues(List.of(List.of("x"), List.of("1,2,3"), List.of("-1e3"),
+                List.of(" 2.5 "), List.of("e5"), List.of("1e")), 6);
+        assertFalse(table.isNumeric(0, 0));
+        assertFalse(table.isNumeric(1, 0));
+        assertEquals(-1000, table.number(2, 0));
+        assertEquals(2.5, table.number(3, 0));
+        assertFalse(table.isNumeric(4, 0));
+        assertFalse(table.isNumeric(5, 0));
+        assertThrows(NumberFormatException.class, () -> table.number(0, 0));
+    }
+}
@@ -0,0 +1,51 @@
+package fi.panukorpela.sheetslatex.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+class SheetValueCacheTest {
+    private final AtomicLong now = new AtomicLong();
+
+    private static List<List<Object>> values(String... cells) {
+        return List.of(List.of((Object[]) cells));
+    }
+
+    @Test
+    void servesNormalizedRangeUntilTtlExpires() {
+        SheetValueCache cache = new SheetValueCache(1000, 10, 1_000_000, now::get);
+        cache.put("sheet", "Visualisations!C42:D55", values("a", "1"));
+
+        assertNotNull(cache.get("sheet", "'Visualisations'!c42:d55"));
+        assertNull(cache.get("other", "Visualisations!C42:D55"));
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        assertNull(cache.get("sheet", "Visualisations!C42:D55"));
+        assertEquals(1, cache.getStats().getHits());
+        assertEquals(2, cache.getStats().getMisses());
+        assertEquals(0, cache.getStats().getEntries());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        SheetValueCache cache = new SheetValueCache(1000, 2, 1_000_000, now::get);
+        cache.put("sheet", "A!A1:A1", values("1"));
+        cache.put("sheet", "B!A1:A1", values("2"));
+        cache.get("sheet", "A!A1:A1");
+        cache.put("sheet", "C!A1:A1", values("3"));
+
+        assertNotNull(cache.get("sheet", "A!A1:A1"));
+        assertNull(cache.get("sheet", "B!A1:A1"));
+        assertEquals(1, cache.getStats().getEvictions());
+
+        cache.invalidateAll();
+        assertNull(cache.get("sheet", "C!A1:A1"));
+        assertEquals(0, cache.getStats().getBytes());
+    }
+}
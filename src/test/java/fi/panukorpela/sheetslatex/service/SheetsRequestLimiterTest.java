@@ -0,0 +1,86 @@
+package fi.panukorpela.sheetslatex.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+
+class SheetsRequestLimiterTest {
+    private final AtomicLong now = new AtomicLong();
+    private final AtomicLong slept = new AtomicLong();
+
+    private SheetsRequestLimiter limiter(int readsPerMinute, int maxAttempts) {
+        return new SheetsRequestLimiter(readsPerMinute, maxAttempts, 1000, 32000, now::get, nanos -> {
+            slept.addAndGet(nanos);
+            now.addAndGet(nanos);
+        }, () -> 1.0);
+    }
+
+    private static HttpResponseException status(int statusCode) {
+        return new HttpResponseException.Builder(statusCode, "status " + statusCode, new HttpHeaders()).build();
+    }
+
+    @Test
+    void waitsForTokensOnceTheBucketIsEmpty() throws Exception {
+        SheetsRequestLimiter limiter = limiter(60, 1);
+        for (int i = 0; i < 60; i++) {
+            limiter.execute(() -> "ok");
+        }
+        assertEquals(0, slept.get());
+
+        limiter.execute(() -> "ok");
+        // 60 per minute refills one token per second
+        assertEquals(TimeUnit.SECONDS.toNanos(1), slept.get(), TimeUnit.MILLISECONDS.toNanos(1));
+        assertEquals(1, limiter.getThrottledCount());
+    }
+
+    @Test
+    void retriesTooManyRequestsWithBackoff() throws Exception {
+        SheetsRequestLimiter limiter = limiter(0, 5);
+        AtomicInteger calls = new AtomicInteger();
+
+        String result = limiter.execute(() -> {
+            if (calls.incrementAndGet() < 3) {
+                throw status(429);
+            }
+            return "ok";
+        });
+
+        assertEquals("ok", result);
+        assertEquals(2, limiter.getRetriedCount());
+        assertEquals(3, limiter.getRequestCount());
+        // 1 s and 2 s at most jitter
+        assertEquals(TimeUnit.SECONDS.toNanos(3), slept.get());
+    }
+
+    @Test
+    void givesUpOnClientErrorsAndAfterLastAttempt() {
+        SheetsRequestLimiter limiter = limiter(0, 3);
+
+        assertThrows(HttpResponseException.class, () -> limiter.execute(() -> {
+            throw status(404);
+        }));
+        assertEquals(0, limiter.getRetriedCount());
+
+        assertThrows(HttpResponseException.class, () -> limiter.execute(() -> {
+            throw status(503);
+        }));
+        assertEquals(2, limiter.getRetriedCount());
+        assertEquals(2, limiter.getFailedCount());
+    }
+
+    @Test
+    void backoffIsCappedAndJittered() {
+        SheetsRequestLimiter limiter = new SheetsRequestLimiter(0, 10, 1000, 4000, now::get, nanos -> { }, () -> 0.0);
+
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(500), limiter.backoffNanos(1));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(2000), limiter.backoffNanos(8));
+    }
+}
@@ -0,0 +1,77 @@
+package fi.panukorpela.sheetslatex.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+class SingleFlightTest {
+    private final AtomicLong now = new AtomicLong();
+
+    @Test
+    void concurrentCallsShareOneLoad() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>(0);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        List<Future<String>> futures = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> singleFlight.get("A!A1:B2", () -> {
+                    loads.incrementAndGet();
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    return "values";
+                })));
+            }
+            // Let everyone join the flight before it lands
+            while (singleFlight.getLoads() + singleFlight.getShared() < 8) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+            for (Future<String> future : futures) {
+                assertEquals("values", future.get());
+            }
+        }
+        assertEquals(1, loads.get());
+        assertEquals(7, singleFlight.getShared());
+    }
+
+    @Test
+    void reusesResultWithinWindowOnly() throws Exception {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<>(100, now::get);
+        AtomicInteger loads = new AtomicInteger();
+
+        assertEquals(1, singleFlight.get("key", loads::incrementAndGet));
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(1, singleFlight.get("key", loads::incrementAndGet));
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(60));
+        assertEquals(2, singleFlight.get("key", loads::incrementAndGet));
+
+        singleFlight.forgetResults();
+        assertEquals(3, singleFlight.get("key", loads::incrementAndGet));
+    }
+
+    @Test
+    void failuresAreNotReused() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>(1000, now::get);
+
+        assertThrows(IOException.class, () -> singleFlight.get("key", () -> {
+            throw new IOException("429");
+        }));
+        assertEquals("ok", singleFlight.get("key", () -> "ok"));
+    }
+}
@@ -0,0 +1,65 @@
+package fi.panukorpela.sheetslatex.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SnapshotSheetDataSourceTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsLatexVariablesFromCsv() throws Exception {
+        Files.writeString(dir.resolve("LaTeX.csv"),
+                "name,value,variable\n"
+                + "x,\"12,5\",share_percent\n"
+                + "x,\"He said \"\"hi\"\"\",quote\n"
+                + "x,,\n"
+                + "x,ignored,after_gap\n");
+        SnapshotSheetDataSource source = new SnapshotSheetDataSource(dir.toString());
+
+        Map<String, String> variables = source.readLatexVariables();
+
+        assertEquals(Map.of("share_percent", "12.5\\%", "quote", "He said \"hi\""), variables);
+    }
+
+    @Test
+    void tableRangeChecksOverflowRowLikeSheets() throws Exception {
+        Files.writeString(dir.resolve("Visualisations.json"),
+                "[[\"a\",\"1\",\"\"],[\"b\",\"2\"],[\"c\",\"3\"],[\"\",\"\",\"extra\"]]");
+        SnapshotSheetDataSource source = new SnapshotSheetDataSource(dir.toString());
+
+        List<String[]> table = source.getTableFromSheet("Visualisations", "A1:B3", true);
+        assertEquals(3, table.size());
+        assertArrayEquals(new String[] {"a", "1"}, table.get(0));
+
+        // Column C of row 4 is outside A:B above, but inside B:C here
+        assertEquals(2, source.getTableFromSheet("Visualisations", "B2:C3", false).size());
+        assertThrows(IllegalStateException.class, () -> source.getTableFromSheet("Visualisations", "B2:C3", true));
+        assertEquals(List.of("3"), source.readRange("Visualisations!B3:C3"));
+    }
+
+    @Test
+    void otherSpreadsheetsAreSubdirectories() throws Exception {
+        Files.createDirectories(dir.resolve("sheet-2"));
+        Files.writeString(dir.resolve("sheet-2").resolve("Data.csv"), "a,1\nb,2\n");
+        Files.writeString(dir.resolve("Data.csv"), "configured,0\n");
+        SnapshotSheetDataSource source = new SnapshotSheetDataSource(dir.toString());
+
+        SheetBatch batch = source.batchGet("sheet-2", List.of("Data!A1:B2"));
+
+        assertEquals(List.of(List.of("a", "1"), List.of("b", "2")), batch.getValues("Data!A1:B2"));
+        assertEquals(List.of(List.of("configured", "0")), source.batchGet(List.of("Data!A1:B2")).getValues("Data!A1:B2"));
+        assertThrows(IOException.class, () -> source.batchGet("unknown", List.of("Data!A1:B2")));
+    }
+}
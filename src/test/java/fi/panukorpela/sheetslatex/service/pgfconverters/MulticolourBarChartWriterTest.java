@@ -0,0 +1,50 @@
+package fi.panukorpela.sheetslatex.service.pgfconverters;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MulticolourBarChartWriterTest {
+
+    private static List<String[]> table() {
+        List<String[]> table = new ArrayList<>();
+        table.add(new String[] { "Dropout", "12" });
+        table.add(new String[] { "Completion rate", "7,5" });
+        return table;
+    }
+
+    @Test
+    void keepsCoordinatesInlineWithExternalData(@TempDir Path dir) throws Exception {
+        Path chart = dir.resolve("chart.tex");
+        BarChartParams params = BarChartParams.builder().tab("Visualisations").range("C42:D43")
+                .outputFile(chart.toString()).externalData(true).build();
+
+        MulticolourBarChartWriter.writeMulticolorBarChartFromSheets(table(), params);
+
+        String tex = Files.readString(chart, StandardCharsets.UTF_8);
+        assertTrue(tex.contains("] coordinates {(Completion rate, 7.5)};"));
+        assertFalse(tex.contains("chart.dat"));
+        assertFalse(Files.exists(dir.resolve("chart.dat")));
+    }
+
+    @Test
+    void inlinesCoordinatesByDefault(@TempDir Path dir) throws Exception {
+        Path chart = dir.resolve("chart.tex");
+        BarChartParams params = BarChartParams.builder().tab("Visualisations").range("C42:D43")
+                .outputFile(chart.toString()).build();
+
+        MulticolourBarChartWriter.writeMulticolorBarChartFromSheets(table(), params);
+
+        assertTrue(Files.readString(chart, StandardCharsets.UTF_8).contains("] coordinates {(Dropout, 12.0)};"));
+        assertFalse(Files.exists(dir.resolve("chart.dat")));
+    }
+}
@@ -0,0 +1,80 @@
+package fi.panukorpela.sheetslatex.service.pgfconverters;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import fi.panukorpela.sheetslatex.service.SheetTable;
+
+class TableDownsamplerTest {
+
+    // Rows of label and value, like a multicolour chart table
+    private static SheetTable table(double... values) {
+        List<String[]> rows = new ArrayList<>();
+        for (int i = 0; i < values.length; i++) {
+            rows.add(new String[] { "L" + (i + 1), String.valueOf(values[i]).replace(".", ",") });
+        }
+        return SheetTable.fromRows(rows);
+    }
+
+    private static void assertRows(List<String[]> expected, SheetTable actual) {
+        List<String[]> rows = actual.toRows();
+        assertEquals(expected.size(), rows.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i), rows.get(i));
+        }
+    }
+
+    @Test
+    void leavesShortTablesAlone() {
+        SheetTable table = table(1, 2, 3);
+
+        assertSame(table, TableDownsampler.downsample(table, Downsampling.MEAN, 3, 1, 0));
+        assertSame(table, TableDownsampler.downsample(table, Downsampling.NONE, 1, 1, 0));
+    }
+
+    @Test
+    void aggregatesFixedBins() {
+        SheetTable table = table(1, 2, 3, 4, 5, 6, 7);
+
+        assertRows(List.of(new String[] { "L1--L3", "6.0" }, new String[] { "L4--L6", "15.0" },
+                new String[] { "L7", "7.0" }), TableDownsampler.downsample(table, Downsampling.SUM, 3, 1, 0));
+        assertRows(List.of(new String[] { "L1--L3", "2.0" }, new String[] { "L4--L6", "5.0" },
+                new String[] { "L7", "7.0" }), TableDownsampler.downsample(table, Downsampling.MEAN, 3, 1, 0));
+        assertRows(List.of(new String[] { "L1--L3", "3.0" }, new String[] { "L4--L6", "6.0" },
+                new String[] { "L7", "7.0" }), TableDownsampler.downsample(table, Downsampling.MAX, 3, 1, 0));
+    }
+
+    @Test
+    void lttbKeepsTheRowsFormingTheLargestTriangles() {
+        // Buckets {L2, L3} and {L4, L5}: L3 is the peak, L4 the steepest drop after it
+        SheetTable table = table(0, 0, 10, 0, 0, 0);
+
+        assertRows(List.of(new String[] { "L1", "0,0" }, new String[] { "L3", "10,0" }, new String[] { "L4", "0,0" },
+                new String[] { "L6", "0,0" }), TableDownsampler.downsample(table, Downsampling.LTTB, 4, 1, 0));
+    }
+
+    @Test
+    void lttbKeepsEndpointsAndPeaks() {
+        double[] values = new double[1000];
+        values[500] = 100;
+
+        List<String[]> sampled = TableDownsampler.downsample(table(values), Downsampling.LTTB, 20, 1, 0).toRows();
+
+        assertEquals(20, sampled.size());
+        assertEquals("L1", sampled.get(0)[0]);
+        assertEquals("L1000", sampled.get(19)[0]);
+        assertEquals(1, sampled.stream().filter(row -> row[0].equals("L501")).count());
+    }
+
+    @Test
+    void parsesYamlValues() {
+        assertEquals(Downsampling.NONE, Downsampling.parse(null));
+        assertEquals(Downsampling.LTTB, Downsampling.parse("lttb"));
+    }
+}
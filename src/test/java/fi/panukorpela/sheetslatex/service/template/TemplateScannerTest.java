@@ -0,0 +1,81 @@
+package fi.panukorpela.sheetslatex.service.template;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class TemplateScannerTest {
+
+    @Test
+    void replacesKnownAndKeepsUnknownPlaceholders() throws Exception {
+        StringWriter out = new StringWriter();
+        TemplateRenderResult result = TemplateScanner.render(
+                new StringReader("n = \\VAR{count}, \\VAR{missing}, \\VA\\VAR{x} \\VAR{} \\VAR{count"),
+                out, Map.of("count", "42", "x", "$1\\%$"));
+
+        assertEquals("n = 42, \\VAR{missing}, \\VA$1\\%$ \\VAR{} \\VAR{count", out.toString());
+        assertEquals(2, result.getReplacements());
+        assertEquals(Set.of("missing"), result.getUnresolved());
+        assertEquals(Set.of(), result.getSheetErrors());
+    }
+
+    @Test
+    void findsPlaceholdersAndErrorsAcrossChunkBoundaries() throws Exception {
+        // Hands out one char per read, so every token is split between reads
+        Reader oneCharAtATime = new StringReader("a \\VAR{first}\\VAR{second} #N/A") {
+            @Override
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                return super.read(cbuf, off, Math.min(len, 1));
+            }
+        };
+        StringWriter out = new StringWriter();
+        TemplateRenderResult result = TemplateScanner.render(oneCharAtATime, out,
+                Map.of("first", "#RE", "second", "F!"));
+
+        assertEquals("a #REF! #N/A", out.toString());
+        assertEquals(Set.of("#REF!", "#N/A"), result.getSheetErrors());
+    }
+
+    @Test
+    void compiledTemplateRendersLikeStreaming() throws Exception {
+        String template = "#\\VAR{a}\\VAR{b}! \\VAR{missing} \\VAR{a}";
+        Map<String, String> values = Map.of("a", "RE", "b", "F");
+        StringWriter streamed = new StringWriter();
+        TemplateRenderResult expected = TemplateScanner.render(new StringReader(template), streamed, values);
+
+        CompiledTemplate compiled = CompiledTemplate.compile(new StringReader(template));
+        StringWriter rendered = new StringWriter();
+        TemplateRenderResult result = compiled.render(values, rendered);
+
+        assertEquals(4, compiled.getVariableCount());
+        assertEquals(streamed.toString(), rendered.toString());
+        assertEquals(streamed.toString(), compiled.renderToString(values));
+        assertEquals(expected.getReplacements(), result.getReplacements());
+        assertEquals(expected.getUnresolved(), result.getUnresolved());
+        assertEquals(Set.of("#REF!"), result.getSheetErrors());
+    }
+
+    @Test
+    void placeholdersInValuesAreUnresolvedOnBothPaths() throws Exception {
+        String template = "\\VAR{a} and \\VAR{b}";
+        Map<String, String> values = Map.of("a", "see \\VAR{nested}", "b", "2");
+
+        StringWriter streamed = new StringWriter();
+        TemplateRenderResult expected = TemplateScanner.render(new StringReader(template), streamed, values);
+        StringWriter rendered = new StringWriter();
+        TemplateRenderResult result = CompiledTemplate.compile(new StringReader(template)).render(values, rendered);
+
+        assertEquals("see \\VAR{nested} and 2", streamed.toString());
+        assertEquals(streamed.toString(), rendered.toString());
+        assertEquals(Set.of("nested"), expected.getUnresolved());
+        assertEquals(expected.getUnresolved(), result.getUnresolved());
+        assertEquals(expected.getReplacements(), result.getReplacements());
+    }
+}
@@ -0,0 +1,91 @@
+package fi.panukorpela.sheetslatex.webapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.server.ResponseStatusException;
+
+import fi.panukorpela.sheetslatex.service.ChartBuildRunner;
+import fi.panukorpela.sheetslatex.service.LatexVariableReplacerService;
+import fi.panukorpela.sheetslatex.service.RenderJob;
+import fi.panukorpela.sheetslatex.service.RenderJobService;
+import fi.panukorpela.sheetslatex.service.RenderRequest;
+import fi.panukorpela.sheetslatex.service.SheetBatch;
+import fi.panukorpela.sheetslatex.service.SheetDataSource;
+import fi.panukorpela.sheetslatex.service.SnapshotSheetDataSource;
+
+class RenderControllerTest {
+    @TempDir
+    Path dir;
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private RenderJobService service;
+    private RenderController controller;
+
+    @BeforeEach
+    void createController() throws Exception {
+        Files.writeString(dir.resolve("LaTeX.csv"), "name,value,variable\n");
+        LatexVariableReplacerService replacer = new LatexVariableReplacerService() {
+            @Override
+            public boolean replaceVarsInLatexFile(SheetBatch batch) throws Exception {
+                started.countDown();
+                release.await();
+                return true;
+            }
+        };
+        SheetDataSource sheets = new SnapshotSheetDataSource(dir.toString());
+        // One build running, one waiting
+        service = new RenderJobService(sheets, replacer, new ChartBuildRunner(sheets, null, 1), null, 1, 1, 10,
+                dir.toString());
+        controller = new RenderController(service);
+    }
+
+    @AfterEach
+    void shutdown() {
+        release.countDown();
+    }
+
+    @Test
+    void acceptedJobsCanBeQueried() {
+        ResponseEntity<RenderJob> response = controller.render(null);
+
+        assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+        RenderJob job = response.getBody();
+        assertEquals("/render/" + job.getId(), response.getHeaders().getLocation().toString());
+        assertEquals(job, controller.job(job.getId()));
+        assertEquals(HttpStatus.NOT_FOUND, assertThrows(ResponseStatusException.class,
+                () -> controller.job("unknown")).getStatusCode());
+    }
+
+    @Test
+    void fullQueueIsServiceUnavailable() throws Exception {
+        controller.render(new RenderRequest());
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        controller.render(new RenderRequest());
+
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+                () -> controller.render(new RenderRequest()));
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, e.getStatusCode());
+    }
+
+    @Test
+    void chartFilesOutsideTheChartsDirectoryAreBadRequests() {
+        RenderRequest request = new RenderRequest();
+        request.setChartsFile("/etc/charts.yaml");
+
+        ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> controller.render(request));
+        assertEquals(HttpStatus.BAD_REQUEST, e.getStatusCode());
+    }
+}